@@ -0,0 +1,314 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+/* BatchEditor
+ * Applies a script of edits to many files without a window, through the
+ * same TextList operations the editor uses, for bulk rewrites on machines
+ * with no display. It is run as
+ *     java editor.BatchEditor script file...
+ * rather than through Editor, since Java starts JavaFX, which needs a
+ * display, before the main method of an Application runs. The script has one command per line:
+ *     goto LINE [COLUMN]   moves to a line, and a column of it, counting from 1
+ *     insert TEXT          inserts TEXT at the position and moves past it
+ *     delete COUNT         deletes up to COUNT characters after the position
+ *     replace OLD [NEW]    replaces every OLD in the file with NEW, or deletes it
+ *     save [NAME]          saves the file, or writes it to NAME, where %f is the file's name
+ * In TEXT, OLD and NEW, \n is a newline, \t a tab, \s a space and \\ a
+ * backslash. Blank lines and lines starting with # are skipped. Each file
+ * starts at its beginning, and the files are edited in parallel, one
+ * TextList per thread, with a line of throughput at the end.
+ */
+public class BatchEditor {
+    private static final int GOTO = 0;
+    private static final int INSERT = 1;
+    private static final int DELETE = 2;
+    private static final int REPLACE = 3;
+    private static final int SAVE = 4;
+    private static final int REPLACECHUNK = 1 << 20; //Characters searched at a time by replace
+    private static final int JOINGAP = 32; //Matches closer than this are replaced in one edit, saving pieces
+    private List<Command> script;
+    private AtomicLong edits = new AtomicLong();
+    private AtomicLong characters = new AtomicLong(); //In the files as loaded
+    //A line of the script, with its escapes already turned into the characters they stand for
+    private static class Command {
+        private int type;
+        private String text;
+        private String other; //The replacement, for REPLACE
+        private int line;
+        private int column;
+        private Command(int type) {
+            this.type = type;
+        }
+    }
+    private BatchEditor(List<Command> script) {
+        this.script = script;
+    }
+    public static void main(String[] args) {
+        System.exit(run(Arrays.asList(args)));
+    }
+    //Runs a script over files given after it on the command line and returns the exit status
+    public static int run(List<String> arguments) {
+        if (arguments.size() < 2) {
+            System.out.println("Usage: java editor.BatchEditor script file...");
+            return 2;
+        }
+        List<Command> script;
+        try {
+            script = parse(Files.readAllLines(Paths.get(arguments.get(0)), FileLoader.CHARSET));
+        } catch (IOException ioe) {
+            System.out.println("Error while reading the script! Exception was: " + ioe);
+            return 1;
+        } catch (IllegalArgumentException iae) {
+            System.out.println("Error while reading the script! " + iae.getMessage());
+            return 1;
+        }
+        return new BatchEditor(script).edit(arguments.subList(1, arguments.size()));
+    }
+    //Edits every file on a pool with a thread per processor and returns 1 if any of them failed
+    public int edit(List<String> filenames) {
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BatchEditor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        long start = System.nanoTime();
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for (final String filename : filenames) {
+            results.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    editFile(filename);
+                }
+            }));
+        }
+        int failed = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+            } catch (ExecutionException ee) {
+                System.out.println("Error while editing " + filenames.get(i) + "! Exception was: " + ee.getCause());
+                failed += 1;
+            } catch (InterruptedException ie) {
+                System.out.println("Error while editing " + filenames.get(i) + "! Exception was: " + ie);
+                failed += 1;
+            }
+        }
+        pool.shutdown();
+        double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+        System.out.printf("%d files, %d edits, %d characters in %.3f s: %.1f files/s, %.0f edits/s, %.1f MB/s%n",
+            filenames.size() - failed, edits.get(), characters.get(), seconds, (filenames.size() - failed) / seconds,
+            edits.get() / seconds, characters.get() / seconds / 1e6);
+        return (failed == 0) ? 0 : 1;
+    }
+    /*Runs the script over one file. The TextList is only ever touched by the
+     *thread running this, and is never laid out, since nothing is drawn.*/
+    private void editFile(String filename) {
+        TextList text = new TextList("Monospaced", 12, 0, FixedMetrics.SOURCE);
+        try {
+            if (Files.exists(Paths.get(filename))) {
+                text.load(FileLoader.open(filename));
+                //Scripts edit the whole file, so don't start on a large one until it is all counted
+                text.finishLoading();
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+        //Nothing is undone here, so keep no history
+        text.setUndoLimit(0);
+        characters.addAndGet(text.getLength());
+        long position = 0;
+        long count = 0;
+        for (Command command : script) {
+            switch (command.type) {
+                case GOTO:
+                    //Lines of the file, which paragraphs are not in one too large to split up front
+                    position = text.getLength();
+                    long start = text.getFileLineStart(command.line - 1);
+                    if (start >= 0) {
+                        long next = text.getFileLineStart(command.line);
+                        long end = (next >= 0) ? next - 1 : text.getLength();
+                        position = Math.min(end, start + command.column - 1);
+                    }
+                    break;
+                case INSERT:
+                    long length = text.getLength();
+                    text.insert(position, command.text);
+                    position += text.getLength() - length;
+                    count += 1;
+                    break;
+                case DELETE:
+                    text.delete(position, Math.min(text.getLength(), position + command.line));
+                    count += 1;
+                    break;
+                case REPLACE:
+                    count += replaceAll(text, command.text.replace('\n', '\r'), command.other.replace('\n', '\r'));
+                    position = Math.min(position, text.getLength());
+                    break;
+                case SAVE:
+                    String target = (command.text == null) ? filename : command.text.replace("%f", filename);
+                    try {
+                        FileSaver.write(text.snapshot(), Paths.get(target));
+                    } catch (IOException ioe) {
+                        throw new RuntimeException(ioe);
+                    }
+                    break;
+            }
+        }
+        edits.addAndGet(count);
+    }
+    /*Replaces every occurrence of old with replacement, both with the newlines
+     *TextList keeps, and returns how many there were. The text is searched
+     *through Finder a chunk at a time, and each match is replaced by an edit
+     *of its own, except that matches closer together than JOINGAP share one,
+     *so only the replacements and short gaps are copied.*/
+    private static long replaceAll(TextList text, String old, String replacement) {
+        long count = 0;
+        long from = 0;
+        while (from < text.getLength()) {
+            long to = Math.min(text.getLength(), from + REPLACECHUNK);
+            PieceTable snapshot = text.snapshot();
+            MatchIndex found = Finder.find(snapshot, old, from, to);
+            //Offsets are in the snapshot, which the text moves away from by shift
+            long shift = 0;
+            long first = -1;
+            long end = from;
+            StringBuilder replaced = new StringBuilder();
+            text.beginChanges();
+            for (int i = 0; i < found.size(); i++) {
+                long start = found.getStart(i);
+                if (start < end) {
+                    //Overlaps the match before, which was replaced
+                    continue;
+                }
+                if ((first >= 0) && (start - end > JOINGAP)) {
+                    shift += replace(text, first + shift, end + shift, replaced);
+                    first = -1;
+                }
+                if (first < 0) {
+                    first = start;
+                    replaced.setLength(0);
+                }
+                else {
+                    snapshot.appendTo(replaced, end, start);
+                }
+                replaced.append(replacement);
+                end = start + old.length();
+                count += 1;
+            }
+            if (first >= 0) {
+                shift += replace(text, first + shift, end + shift, replaced);
+            }
+            text.endChanges();
+            //A match can run on into the next chunk, which then starts after it
+            from = Math.max(to, end) + shift;
+        }
+        return count;
+    }
+    //Replaces [from, to) with replaced, returning how much longer that made the text
+    private static long replace(TextList text, long from, long to, CharSequence replaced) {
+        text.delete(from, to);
+        if (replaced.length() > 0) {
+            text.insert(from, replaced);
+        }
+        return replaced.length() - (to - from);
+    }
+    //Turns the lines of a script into commands, throwing IllegalArgumentException at the first bad one
+    private static List<Command> parse(List<String> lines) {
+        List<Command> script = new ArrayList<Command>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            String name = (space < 0) ? line : line.substring(0, space);
+            String argument = (space < 0) ? "" : line.substring(space + 1).trim();
+            try {
+                script.add(parseCommand(name, argument));
+            } catch (IllegalArgumentException iae) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": " + iae.getMessage());
+            }
+        }
+        return script;
+    }
+    private static Command parseCommand(String name, String argument) {
+        Command command;
+        switch (name) {
+            case "goto":
+                command = new Command(GOTO);
+                String[] numbers = argument.split(" +");
+                command.line = Integer.parseInt(numbers[0]);
+                command.column = (numbers.length > 1) ? Integer.parseInt(numbers[1]) : 1;
+                if ((numbers.length > 2) || (command.line < 1) || (command.column < 1)) {
+                    throw new IllegalArgumentException("goto takes a line and a column, counting from 1");
+                }
+                return command;
+            case "insert":
+                command = new Command(INSERT);
+                command.text = unescape(argument);
+                return command;
+            case "delete":
+                command = new Command(DELETE);
+                command.line = Integer.parseInt(argument);
+                if (command.line < 0) {
+                    throw new IllegalArgumentException("delete takes a count of characters");
+                }
+                return command;
+            case "replace":
+                command = new Command(REPLACE);
+                String[] parts = argument.split(" +");
+                if (argument.isEmpty() || (parts.length > 2)) {
+                    throw new IllegalArgumentException("replace takes the text to replace and its replacement");
+                }
+                command.text = unescape(parts[0]);
+                command.other = (parts.length > 1) ? unescape(parts[1]) : "";
+                return command;
+            case "save":
+                command = new Command(SAVE);
+                command.text = argument.isEmpty() ? null : argument;
+                return command;
+            default:
+                throw new IllegalArgumentException("Unknown command " + name);
+        }
+    }
+    private static String unescape(String argument) {
+        StringBuilder unescaped = new StringBuilder();
+        for (int i = 0; i < argument.length(); i++) {
+            char current = argument.charAt(i);
+            if ((current != '\\') || (i + 1 == argument.length())) {
+                unescaped.append(current);
+                continue;
+            }
+            i += 1;
+            switch (argument.charAt(i)) {
+                case 'n':
+                    unescaped.append('\n');
+                    break;
+                case 't':
+                    unescaped.append('\t');
+                    break;
+                case 's':
+                    unescaped.append(' ');
+                    break;
+                default:
+                    unescaped.append(argument.charAt(i));
+            }
+        }
+        return unescaped.toString();
+    }
+}
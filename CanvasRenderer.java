@@ -0,0 +1,192 @@
+package editor;
+
+import java.util.Arrays;
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+/* CanvasRenderer
+ * Paints the visible lines of a TextList onto a single Canvas the size of
+ * the window, with one fillText call per line, or per run of a style when
+ * the text is highlighted. It remembers what each row
+ * of the window shows, so after an edit, a blink of the cursor or a new
+ * search match only the rows that look different are cleared and painted
+ * again. Scrolling, resizing or changing the font repaints everything.
+ */
+public class CanvasRenderer implements Renderer {
+    private static final Color SELECTIONCOLOR = Color.LIGHTSKYBLUE;
+    private static final Color MATCHCOLOR = Color.KHAKI;
+    private static final int[] NOMATCHES = new int[0];
+    private TextList text;
+    private int margin;
+    private Canvas canvas;
+    private GraphicsContext graphics;
+    private Font font;
+    private String fontName;
+    private int fontSize;
+    private int firstLine = -1;
+    private int lineHeight;
+    //What each row was painted with: its text, the ends of its selection and the cursor's x, or -1
+    private String[] rowText = new String[0];
+    private int[] rowSelectionLeft = new int[0];
+    private int[] rowSelectionRight = new int[0];
+    private int[] rowCursor = new int[0];
+    private int[][] rowMatches = new int[0][]; //The left and right of each match on the row
+    private int[][] rowRuns = new int[0][]; //Where each run of a style starts on the row, its style and its x, or null
+    private MatchIndex matches;
+    private Highlighter highlighter; //Null when the text is painted plain
+    private int cursorRow = -1;
+    private boolean cursorVisible = true;
+    public CanvasRenderer(TextList text, Group group, int margin) {
+        this.text = text;
+        this.margin = margin;
+        canvas = new Canvas();
+        graphics = canvas.getGraphicsContext2D();
+        graphics.setTextBaseline(VPos.TOP);
+        group.getChildren().add(canvas);
+    }
+    @Override
+    public void render(int newFirstLine, int windowWidth, int windowHeight) {
+        boolean repaintAll = (newFirstLine != firstLine) || (text.getTextHeight() != lineHeight)
+            || (canvas.getWidth() != windowWidth) || (canvas.getHeight() != windowHeight);
+        if ((font == null) || !text.getFont().equals(fontName) || (text.getSize() != fontSize)) {
+            fontName = text.getFont();
+            fontSize = text.getSize();
+            font = Font.font(fontName, fontSize);
+            graphics.setFont(font);
+            repaintAll = true;
+        }
+        firstLine = newFirstLine;
+        lineHeight = text.getTextHeight();
+        canvas.setWidth(windowWidth);
+        canvas.setHeight(windowHeight);
+        //The group is moved up as the window scrolls, so move the canvas back down
+        canvas.setLayoutY(firstLine * lineHeight);
+        int rows = windowHeight / lineHeight + 1;
+        if (rows != rowText.length) {
+            rowText = new String[rows];
+            rowSelectionLeft = new int[rows];
+            rowSelectionRight = new int[rows];
+            rowCursor = new int[rows];
+            rowMatches = new int[rows][];
+            rowRuns = new int[rows][];
+            repaintAll = true;
+        }
+        int cursorLine = text.getCursorY() / lineHeight;
+        cursorRow = ((cursorLine >= firstLine) && (cursorLine < firstLine + rows)) ? cursorLine - firstLine : -1;
+        int lineCount = text.getLineCount();
+        long selectionStart = text.getSelectionStart();
+        long selectionEnd = text.getSelectionEnd();
+        for (int row = 0; row < rows; row++) {
+            int line = firstLine + row;
+            String lineText = null;
+            int left = -1;
+            int right = -1;
+            int[] lineMatches = NOMATCHES;
+            int[] lineRuns = null;
+            if (line < lineCount) {
+                lineText = text.getLineText(line);
+                long lineStart = text.getLineStart(line);
+                long lineLimit = text.getLineLimit(line);
+                if (text.hasSelection() && (selectionEnd > lineStart) && (selectionStart < lineLimit)) {
+                    left = text.getX(line, Math.max(selectionStart, lineStart));
+                    right = Math.max(left + 1, text.getX(line, Math.min(selectionEnd, lineLimit)));
+                }
+                lineMatches = findMatches(line, lineStart, lineLimit);
+                lineRuns = findRuns(line, lineStart, lineText.length());
+            }
+            int cursorX = (row == cursorRow) ? text.getCursorX() : -1;
+            if (repaintAll || !same(lineText, rowText[row]) || (left != rowSelectionLeft[row])
+                || (right != rowSelectionRight[row]) || (cursorX != rowCursor[row])
+                || !Arrays.equals(lineMatches, rowMatches[row]) || !Arrays.equals(lineRuns, rowRuns[row])) {
+                rowText[row] = lineText;
+                rowMatches[row] = lineMatches;
+                rowRuns[row] = lineRuns;
+                rowSelectionLeft[row] = left;
+                rowSelectionRight[row] = right;
+                rowCursor[row] = cursorX;
+                paintRow(row);
+            }
+        }
+    }
+    @Override
+    public void setCursorVisible(boolean visible) {
+        cursorVisible = visible;
+        if (cursorRow >= 0) {
+            paintRow(cursorRow);
+        }
+    }
+    private void paintRow(int row) {
+        double y = row * lineHeight;
+        graphics.clearRect(0, y, canvas.getWidth(), lineHeight);
+        graphics.setFill(MATCHCOLOR);
+        for (int i = 0; i < rowMatches[row].length; i += 2) {
+            graphics.fillRect(rowMatches[row][i], y, rowMatches[row][i + 1] - rowMatches[row][i], lineHeight);
+        }
+        if (rowSelectionLeft[row] >= 0) {
+            graphics.setFill(SELECTIONCOLOR);
+            graphics.fillRect(rowSelectionLeft[row], y, rowSelectionRight[row] - rowSelectionLeft[row], lineHeight);
+        }
+        if (rowRuns[row] != null) {
+            int[] runs = rowRuns[row];
+            for (int i = 0; i < runs.length; i += 3) {
+                int runEnd = (i + 3 < runs.length) ? runs[i + 3] : rowText[row].length();
+                graphics.setFill(STYLECOLORS[runs[i + 1]]);
+                graphics.fillText(rowText[row].substring(runs[i], runEnd), runs[i + 2], y);
+            }
+        }
+        else if (rowText[row] != null) {
+            graphics.setFill(Color.BLACK);
+            graphics.fillText(rowText[row], margin, y);
+        }
+        graphics.setFill(Color.BLACK);
+        if (cursorVisible && (rowCursor[row] >= 0)) {
+            graphics.fillRect(rowCursor[row], y, 1, lineHeight);
+        }
+    }
+    @Override
+    public void setMatches(MatchIndex newMatches) {
+        matches = newMatches;
+    }
+    @Override
+    public void setHighlighter(Highlighter newHighlighter) {
+        highlighter = newHighlighter;
+    }
+    //Returns where each run of a style starts relative to the line, its style and its x, or null to paint the line plain
+    private int[] findRuns(int line, long lineStart, int lineLength) {
+        int[] styles = (highlighter == null) ? null : highlighter.getStyles(lineStart, lineStart + lineLength);
+        if (styles == null) {
+            return null;
+        }
+        int[] runs = new int[styles.length / 2 * 3];
+        for (int i = 0; i < styles.length / 2; i++) {
+            runs[3 * i] = styles[2 * i];
+            runs[3 * i + 1] = styles[2 * i + 1];
+            runs[3 * i + 2] = text.getX(line, lineStart + styles[2 * i]);
+        }
+        return runs;
+    }
+    //Returns the left and right of each match on a line
+    private int[] findMatches(int line, long lineStart, long lineLimit) {
+        if ((matches == null) || (matches.size() == 0)) {
+            return NOMATCHES;
+        }
+        int[] found = NOMATCHES;
+        for (int i = matches.indexAround(lineStart); (i < matches.size()) && (matches.getStart(i) < lineLimit); i++) {
+            if (matches.getEnd(i) <= lineStart) {
+                continue;
+            }
+            int left = text.getX(line, Math.max(matches.getStart(i), lineStart));
+            int right = Math.max(left + 1, text.getX(line, Math.min(matches.getEnd(i), lineLimit)));
+            found = Arrays.copyOf(found, found.length + 2);
+            found[found.length - 2] = left;
+            found[found.length - 1] = right;
+        }
+        return found;
+    }
+    private static boolean same(String a, String b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+}
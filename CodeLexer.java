@@ -0,0 +1,141 @@
+package editor;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+/* CodeLexer
+ * A Lexer for the usual shape of source and configuration files: line
+ * comments starting with a given prefix, optional block comments in the
+ * style of C, strings in single or double quotes that end with their line,
+ * numbers, and a set of keywords. The only state carried from one line to
+ * the next is whether a block comment is still open.
+ */
+public class CodeLexer implements Lexer {
+    private static final int INCOMMENT = 1;
+    private static final String[] JAVA = {"abstract", "assert", "boolean", "break", "byte", "case",
+        "catch", "char", "class", "const", "continue", "default", "do", "double", "else", "enum",
+        "extends", "false", "final", "finally", "float", "for", "goto", "if", "implements",
+        "import", "instanceof", "int", "interface", "long", "native", "new", "null", "package",
+        "private", "protected", "public", "return", "short", "static", "strictfp", "super",
+        "switch", "synchronized", "this", "throw", "throws", "transient", "true", "try", "var",
+        "void", "volatile", "while"};
+    private static final String[] C = {"auto", "bool", "break", "case", "char", "class", "const",
+        "continue", "default", "delete", "do", "double", "else", "enum", "extern", "false", "float",
+        "for", "goto", "if", "inline", "int", "long", "namespace", "new", "nullptr", "private",
+        "protected", "public", "register", "return", "short", "signed", "sizeof", "static",
+        "struct", "switch", "template", "this", "true", "typedef", "union", "unsigned", "using",
+        "virtual", "void", "volatile", "while"};
+    private static final String[] JAVASCRIPT = {"async", "await", "break", "case", "catch", "class",
+        "const", "continue", "default", "delete", "do", "else", "export", "extends", "false",
+        "finally", "for", "function", "if", "import", "in", "instanceof", "let", "new", "null",
+        "return", "super", "switch", "this", "throw", "true", "try", "typeof", "undefined", "var",
+        "void", "while", "yield"};
+    private static final String[] PYTHON = {"False", "None", "True", "and", "as", "assert", "async",
+        "await", "break", "class", "continue", "def", "del", "elif", "else", "except", "finally",
+        "for", "from", "global", "if", "import", "in", "is", "lambda", "nonlocal", "not", "or",
+        "pass", "raise", "return", "try", "while", "with", "yield"};
+    private static final String[] SHELL = {"case", "do", "done", "elif", "else", "esac", "export",
+        "fi", "for", "function", "if", "in", "local", "return", "then", "until", "while"};
+    private static final String[] CONFIG = {"true", "false", "yes", "no", "on", "off", "null"};
+    private Set<String> keywords;
+    private String lineComment;
+    private boolean blockComments;
+    public CodeLexer(String[] keywords, String lineComment, boolean blockComments) {
+        this.keywords = new HashSet<String>(Arrays.asList(keywords));
+        this.lineComment = lineComment;
+        this.blockComments = blockComments;
+    }
+    //Returns a lexer for the kind of file the name's extension suggests, or null to leave it plain
+    public static Lexer forFile(String filename) {
+        String extension = filename.substring(filename.lastIndexOf('.') + 1).toLowerCase();
+        switch (extension) {
+            case "java":
+                return new CodeLexer(JAVA, "//", true);
+            case "c": case "h": case "cc": case "cpp": case "hpp": case "cs":
+                return new CodeLexer(C, "//", true);
+            case "js": case "ts": case "jsx": case "tsx":
+                return new CodeLexer(JAVASCRIPT, "//", true);
+            case "py":
+                return new CodeLexer(PYTHON, "#", false);
+            case "sh": case "bash":
+                return new CodeLexer(SHELL, "#", false);
+            case "properties": case "conf": case "cfg": case "ini": case "toml": case "yaml": case "yml":
+                return new CodeLexer(CONFIG, "#", false);
+            case "json":
+                return new CodeLexer(CONFIG, null, false);
+            default:
+                return null;
+        }
+    }
+    @Override
+    public int lex(char[] line, int length, int state, Runs runs) {
+        int ptr = 0;
+        if (state == INCOMMENT) {
+            runs.add(0, COMMENT);
+            ptr = endOfComment(line, 0, length);
+            if (ptr < 0) {
+                return INCOMMENT;
+            }
+        }
+        while (ptr < length) {
+            char current = line[ptr];
+            if ((lineComment != null) && startsWith(line, ptr, length, lineComment)) {
+                runs.add(ptr, COMMENT);
+                return INITIAL;
+            }
+            else if (blockComments && startsWith(line, ptr, length, "/*")) {
+                runs.add(ptr, COMMENT);
+                ptr = endOfComment(line, ptr + 2, length);
+                if (ptr < 0) {
+                    return INCOMMENT;
+                }
+            }
+            else if ((current == '"') || (current == '\'')) {
+                runs.add(ptr, STRING);
+                ptr += 1;
+                while ((ptr < length) && (line[ptr] != current)) {
+                    ptr += (line[ptr] == '\\') ? 2 : 1;
+                }
+                ptr = Math.min(length, ptr + 1);
+            }
+            else if (Character.isDigit(current)) {
+                runs.add(ptr, NUMBER);
+                while ((ptr < length) && (Character.isLetterOrDigit(line[ptr]) || (line[ptr] == '.') || (line[ptr] == '_'))) {
+                    ptr += 1;
+                }
+            }
+            else if (Character.isJavaIdentifierStart(current)) {
+                int start = ptr;
+                while ((ptr < length) && Character.isJavaIdentifierPart(line[ptr])) {
+                    ptr += 1;
+                }
+                runs.add(start, keywords.contains(new String(line, start, ptr - start)) ? KEYWORD : PLAIN);
+            }
+            else {
+                runs.add(ptr, PLAIN);
+                ptr += 1;
+            }
+        }
+        return INITIAL;
+    }
+    //Returns where the block comment open at from ends, or -1 if it doesn't end on this line
+    private static int endOfComment(char[] line, int from, int length) {
+        for (int ptr = from; ptr + 1 < length; ptr++) {
+            if ((line[ptr] == '*') && (line[ptr + 1] == '/')) {
+                return ptr + 2;
+            }
+        }
+        return -1;
+    }
+    private static boolean startsWith(char[] line, int from, int length, String prefix) {
+        if (from + prefix.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[from + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
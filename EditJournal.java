@@ -0,0 +1,267 @@
+package editor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+/* EditJournal
+ * Keeps every edit made to a file in a journal next to it, so that work
+ * that has not been saved survives a crash. Edits are queued in memory and
+ * written and forced to disk together every few milliseconds, or sooner
+ * once enough of them pile up. The journal starts with the size and time
+ * of the file its edits apply to. After a save it is cut down to the edits
+ * made since the saved snapshot, and opening a file that still has a
+ * matching journal replays its edits, so recovering only reads the edits.
+ */
+public class EditJournal implements TextList.Listener {
+    private static final int MAGIC = 0x45444a32; //Records with long offsets
+    private static final int HEADERSIZE = 4 + 8 + 8;
+    private static final long FLUSHMILLIS = 100;
+    private static final int FLUSHEDITS = 256; //Edits queued before writing them without waiting
+    private Path file;
+    private Path journal;
+    private FileChannel channel; //Only used on the journal's thread
+    private ScheduledExecutorService executor;
+    private ByteArrayOutputStream pending; //Records not written yet, guarded by this
+    private int pendingEdits;
+    private long written; //Bytes of records queued since opening, including those compacted away
+    private long base; //Where the first record in the journal falls in that count
+    private int recovered;
+    private EditJournal(Path file) {
+        this.file = file;
+        journal = file.resolveSibling("." + file.getFileName() + ".journal");
+        pending = new ByteArrayOutputStream();
+    }
+    /*Opens the journal of a file that has just been loaded into text, first
+     *replaying any edits it holds that were never saved.*/
+    public static EditJournal open(String filename, TextList text) throws IOException {
+        EditJournal editJournal = new EditJournal(Paths.get(filename).toAbsolutePath());
+        editJournal.recover(text);
+        editJournal.start();
+        return editJournal;
+    }
+    //The number of edits replayed when the journal was opened
+    public int getRecovered() {
+        return recovered;
+    }
+    //Queues changes to be written with the next batch
+    @Override
+    public void changed(List<TextChange> changes) {
+        for (TextChange change : changes) {
+            record(change.getOffset(), change.getRemovedLength(), change.getInserted());
+        }
+    }
+    private void record(long offset, int removedLength, String inserted) {
+        ByteBuffer record = ByteBuffer.allocate(16 + 2 * inserted.length() + 4);
+        record.putLong(offset).putInt(removedLength).putInt(inserted.length());
+        for (int i = 0; i < inserted.length(); i++) {
+            record.putChar(inserted.charAt(i));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        boolean full;
+        synchronized (this) {
+            pending.write(record.array(), 0, record.capacity());
+            pendingEdits += 1;
+            full = (pendingEdits == FLUSHEDITS);
+        }
+        written += record.capacity();
+        if (full) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+    }
+    //Marks the edits so far, which a save of the text as it is now will make unnecessary
+    public long mark() {
+        return written;
+    }
+    //Drops the edits before the mark now that the file they led to is saved
+    public void compact(final long mark) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                try {
+                    rewrite(mark);
+                } catch (IOException ioe) {
+                    System.out.println("Error while compacting the journal! Exception was: " + ioe);
+                }
+            }
+        });
+    }
+    /*Writes out the last edits and closes the journal. Unless it is kept, the
+     *journal is then deleted, along with the edits in it.*/
+    public void close(boolean keep) throws InterruptedException, IOException {
+        executor.shutdown();
+        executor.awaitTermination(FLUSHMILLIS * 10, TimeUnit.MILLISECONDS);
+        flush();
+        channel.close();
+        if (!keep) {
+            Files.deleteIfExists(journal);
+        }
+    }
+    private void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EditJournal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSHMILLIS, FLUSHMILLIS, TimeUnit.MILLISECONDS);
+    }
+    //Writes the queued records and forces them to disk, one batch for all of them
+    private void flush() {
+        byte[] records;
+        synchronized (this) {
+            if (pendingEdits == 0) {
+                return;
+            }
+            records = pending.toByteArray();
+            pending.reset();
+            pendingEdits = 0;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException ioe) {
+            System.out.println("Error while writing the journal! Exception was: " + ioe);
+        }
+    }
+    /*Replays the journal onto text if it was started on the file as it is on
+     *disk now, stopping at the first record that was not completely written,
+     *and then carries on appending to it. Otherwise a new journal is started.*/
+    private void recover(TextList text) throws IOException {
+        if (Files.exists(journal)) {
+            channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            long end = 0;
+            try {
+                if ((in.readInt() == MAGIC) && (in.readLong() == getSize()) && (in.readLong() == getTime())) {
+                    //The edits may reach anywhere in the file, so all of it has to be there first
+                    text.finishLoading();
+                    end = HEADERSIZE;
+                    while (true) {
+                        int length = replay(in, text);
+                        if (length < 0) {
+                            break;
+                        }
+                        end += length;
+                        recovered += 1;
+                    }
+                }
+            } catch (EOFException eofe) {
+                //The last record was cut short by the crash
+            }
+            if (end > 0) {
+                channel.truncate(end);
+                channel.position(end);
+                base = -(end - HEADERSIZE);
+                return;
+            }
+            channel.close();
+        }
+        channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader(channel);
+    }
+    //Applies the next record to text, returning its length, or -1 if it is damaged
+    private static int replay(DataInputStream in, TextList text) throws IOException {
+        byte[] header = new byte[16];
+        in.readFully(header);
+        ByteBuffer fields = ByteBuffer.wrap(header);
+        long offset = fields.getLong();
+        int removedLength = fields.getInt();
+        int insertedLength = fields.getInt();
+        long length = text.getLength();
+        if ((offset < 0) || (removedLength < 0) || (offset + removedLength > length)
+            || (insertedLength < 0) || (insertedLength > Integer.MAX_VALUE / 2 - 16)) {
+            return -1;
+        }
+        byte[] chars = new byte[2 * insertedLength];
+        in.readFully(chars);
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        crc.update(chars);
+        if (in.readInt() != (int) crc.getValue()) {
+            return -1;
+        }
+        char[] inserted = new char[insertedLength];
+        ByteBuffer.wrap(chars).asCharBuffer().get(inserted);
+        text.replay(offset, removedLength, new String(inserted));
+        return header.length + chars.length + 4;
+    }
+    //Starts a new journal holding only the records after the mark
+    private void rewrite(long mark) throws IOException {
+        Path temp = Files.createTempFile(journal.getParent(), journal.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                writeHeader(out);
+                long from = HEADERSIZE + mark - base;
+                long size = channel.size();
+                while (from < size) {
+                    from += channel.transferTo(from, size - from, out);
+                }
+                out.force(true);
+            }
+            channel.close();
+            try {
+                Files.move(temp, journal, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING);
+            }
+            base = mark;
+        } finally {
+            Files.deleteIfExists(temp);
+            if (!channel.isOpen()) {
+                channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channel.position(channel.size());
+            }
+        }
+    }
+    private void writeHeader(FileChannel out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+        header.putInt(MAGIC).putLong(getSize()).putLong(getTime()).flip();
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+        out.force(true);
+    }
+    //The size and modification time of the file, or -1 if it does not exist yet
+    private long getSize() throws IOException {
+        return Files.exists(file) ? Files.size(file) : -1;
+    }
+    private long getTime() throws IOException {
+        return Files.exists(file) ? Files.getLastModifiedTime(file).toMillis() : -1;
+    }
+}
@@ -2,34 +2,42 @@ package editor;
 
 import javafx.application.Application;
 import javafx.application.Application.Parameters;
-import java.io.BufferedReader;
+import javafx.application.Platform;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import javafx.stage.Stage;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.VPos;
 import javafx.geometry.Orientation;
 import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
 import javafx.animation.Timeline;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
+import javafx.scene.transform.Scale;
+import javafx.scene.control.Label;
 import javafx.scene.control.ScrollBar;
 import javafx.util.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * A JavaFX application that opens, edits, and rewrites files
@@ -40,20 +48,58 @@ public class Editor extends Application {
     private static final int INITIALFONTSIZE = 12;
     private int fontSize = INITIALFONTSIZE;
     private static final int FONTSIZEINCREMENT = 4;
+    //How long the font size has to stay the same before the text is wrapped for it, in seconds
+    private static final double ZOOMDELAY = .3;
+    private static final int ZOOMBATCHSIZE = 1024;
     private static final int MARGIN = 5;
     //will probably be changed when file i/o is ready
     private static final String DEFAULTFONT = "Verdana";
     private static double BLINKINTERVAL = .5;
     private static final int INITIALSCREENWIDTH = 500;
     private static final int INITIALSCREENHEIGHT = 500;
+    //How long to spend laying out lines that aren't on the screen between events
+    private static final long LAYOUTSLICE = 4000000;
+    //How many seconds to wait for saves to finish when closing
+    private static final long SAVETIMEOUT = 30;
+    //How often the debug overlay is refreshed, in nanoseconds, and where latencies go on exit
+    private static final long OVERLAYINTERVAL = 250000000;
+    private static final int OVERLAYFONTSIZE = 10;
+    private static final String LATENCYFILE = "editor-latency.csv";
+    //The longest selection Ctrl+F starts looking for
+    private static final int MAXFINDSELECTION = 200;
     private int windowWidth;
     private int windowHeight;
+    private int wrapWidth; //The width the text was last wrapped to
     private Scene scene;
-    private Rectangle cursor;
     private TextList currentText;
+    private Renderer renderer;
+    private Scale zoom; //Scales what is drawn until the text is wrapped at the new font size
+    private PauseTransition zoomDelay;
     private String filename;
     private boolean debugMode;
     private ScrollBar scrollBar;
+    private boolean layingOut;
+    private ParallelLayout parallelLayout;
+    private boolean wrappingInParallel;
+    private boolean relayoutPending; //Whether the next pulse should start wrapping everything again
+    private boolean viewDirty; //Whether lines changed off the screen since the last pulse
+    private Stage stage;
+    private FileSaver saver;
+    private EditJournal journal;
+    private FileWatcher watcher;
+    private Highlighter highlighter; //Null unless the file is of a kind that is highlighted
+    private Deque<Long> saveMarks; //Where the journal stood when each running save was started
+    private boolean layoutDirty; //Whether the text changed since the last pulse
+    private boolean cursorDirty;
+    private LatencyMonitor monitor; //Only in debug mode
+    private Finder finder;
+    private Label findBar;
+    private boolean finding; //Whether keys typed go to the find bar
+    private String findQuery = "";
+    private boolean findRegex;
+    private String findError; //Why the expression could not be used, or null
+    private boolean jumpPending; //Whether to go to the first match when it is found
+    private Text overlay;
     private class KeyEventHandler implements EventHandler<KeyEvent> {
         /** TextList containing the Text to display on the screen. */
         @Override
@@ -63,37 +109,93 @@ public class Editor extends Application {
              *"c&s:" update only the cursor and scroll bar
              *"all:" update the TextList, cursor, and scroll bar*/
             String update = "nothing";
-            if (keyEvent.getEventType() == KeyEvent.KEY_PRESSED) {
+            if (monitor != null) {
+                monitor.begin();
+            }
+            currentText.beginChanges();
+            if (finding && findKey(keyEvent)) {
+                update = "c&s";
+            }
+            else if (keyEvent.getEventType() == KeyEvent.KEY_PRESSED) {
                 KeyCode code = keyEvent.getCode();
                 if (keyEvent.isShortcutDown()) {
                     if (code == KeyCode.P) {
                         debugPrint(currentText.getCursorX() + ", " + currentText.getCursorY());
                     }
                     else if (code == KeyCode.S) {
-                        currentText.write(filename);
+                        stage.setTitle("Editor - saving " + filename);
+                        //The rest of a file still being counted is saved too, so wait for it
+                        grow(true);
+                        if (journal != null) {
+                            saveMarks.addLast(journal.mark());
+                        }
+                        if (watcher != null) {
+                            watcher.saving();
+                        }
+                        saver.save(currentText.snapshot(), filename);
+                    }
+                    else if (code == KeyCode.F) {
+                        //Start with the selection, if it is a short piece of one line
+                        long selectedLength = currentText.getSelectionEnd() - currentText.getSelectionStart();
+                        if ((selectedLength > 0) && (selectedLength <= MAXFINDSELECTION)) {
+                            String selected = currentText.getSelectedText();
+                            if (selected.indexOf('\n') < 0) {
+                                findQuery = selected;
+                            }
+                        }
+                        finding = true;
+                        findBar.setVisible(true);
+                        startFind();
+                        update = "c&s";
                     }
                     else if (code == KeyCode.Z) {
-                        //currentText.undo();
-                        //update = "all";
+                        currentText.undo();
+                        update = "all";
                     }
                     else if (code == KeyCode.Y) {
-                        //currentText.redo();
-                        //update = "all";
+                        currentText.redo();
+                        update = "all";
+                    }
+                    else if (code == KeyCode.A) {
+                        currentText.selectAll();
+                        update = "c&s";
+                    }
+                    else if ((code == KeyCode.C) || (code == KeyCode.X)) {
+                        String selected = currentText.hasSelection() ? currentText.getSelectedText() : null;
+                        if (selected != null) {
+                            ClipboardContent content = new ClipboardContent();
+                            content.putString(selected);
+                            Clipboard.getSystemClipboard().setContent(content);
+                            if (code == KeyCode.X) {
+                                currentText.deleteSelection();
+                                update = "all";
+                            }
+                        }
+                    }
+                    else if (code == KeyCode.V) {
+                        Clipboard clipboard = Clipboard.getSystemClipboard();
+                        if (clipboard.hasString()) {
+                            //One splice and one reflow, however long the text is
+                            currentText.paste(clipboard.getString());
+                            update = "all";
+                        }
                     }
                     else if ((code == KeyCode.PLUS) || (code == KeyCode.EQUALS)) {
-                        fontSize += FONTSIZEINCREMENT;
-                        currentText.setSize(fontSize);
-                        cursor.setHeight(currentText.getTextHeight());
-                        update = "all";
+                        zoomTo(fontSize + FONTSIZEINCREMENT);
                     }
                     else if (code == KeyCode.MINUS) {
-                        fontSize = Math.max(4, fontSize - 4);
-                        currentText.setSize(fontSize);
-                        cursor.setHeight(currentText.getTextHeight());
-                        update = "all";
+                        zoomTo(Math.max(4, fontSize - FONTSIZEINCREMENT));
                     }
                 }
                 else {
+                    if (code.isArrowKey()) {
+                        if (keyEvent.isShiftDown()) {
+                            currentText.startSelection();
+                        }
+                        else {
+                            currentText.clearSelection();
+                        }
+                    }
                     if (code == KeyCode.LEFT) {
                         currentText.moveCursorLeft();
                         update = "c&s";
@@ -114,6 +216,10 @@ public class Editor extends Application {
                         currentText.backspace();
                         update = "all";
                     }
+                    else if (code == KeyCode.F3) {
+                        findNext(!keyEvent.isShiftDown());
+                        update = "c&s";
+                    }
                 }
             }
             else if (keyEvent.getEventType() == KeyEvent.KEY_TYPED) {
@@ -130,41 +236,267 @@ public class Editor extends Application {
                 }
                 //centerText();
             } 
+            //Listeners hear about all of this event's changes at once
+            currentText.endChanges();
+            //The text changes now, but layout waits for the next pulse
+            if (monitor != null) {
+                monitor.mark(LatencyMonitor.EDIT);
+            }
             if (update == "all") {
-                currentText.updateList(windowWidth - (int) Math.round(scrollBar.getLayoutBounds().getWidth()));
-                updateCursorAndScrollBar();
+                requestUpdate(true);
             }
             else if (update == "c&s") {
-                updateCursorAndScrollBar();
+                requestUpdate(false);
+            }
+            if (monitor != null) {
+                monitor.end(update != "nothing");
             }
         }
     }
+    /*Keys typed while the find bar is open change what is looked for: Enter
+     *goes to the next match (Shift+Enter the previous one), Escape closes the
+     *bar and Shortcut+R switches between strings and regular expressions.
+     *Returns false for keys the find bar leaves to the editor.*/
+    private boolean findKey(KeyEvent keyEvent) {
+        if (keyEvent.getEventType() == KeyEvent.KEY_TYPED) {
+            String characterTyped = keyEvent.getCharacter();
+            if ((characterTyped.length() == 0) || keyEvent.isShortcutDown()) {
+                return false;
+            }
+            //Control characters such as Enter and Escape are handled as they are pressed
+            if ((characterTyped.charAt(0) >= ' ') && (characterTyped.charAt(0) != 127)) {
+                findQuery += characterTyped;
+                startFind();
+            }
+            keyEvent.consume();
+            return true;
+        }
+        KeyCode code = keyEvent.getCode();
+        if (keyEvent.isShortcutDown()) {
+            if (code != KeyCode.R) {
+                return false;
+            }
+            findRegex = !findRegex;
+            startFind();
+        }
+        else if (code == KeyCode.ESCAPE) {
+            finding = false;
+            findBar.setVisible(false);
+            finder.clear();
+            jumpPending = false;
+        }
+        else if (code == KeyCode.BACK_SPACE) {
+            if (findQuery.length() > 0) {
+                findQuery = findQuery.substring(0, findQuery.length() - 1);
+                startFind();
+            }
+        }
+        else if (code == KeyCode.ENTER) {
+            findNext(!keyEvent.isShiftDown());
+        }
+        else {
+            return false;
+        }
+        return true;
+    }
+    //Starts looking for the query, going to the first match from the cursor on
+    private void startFind() {
+        try {
+            finder.find(findQuery, findRegex, currentText.getSelectionStart());
+            findError = null;
+        } catch (PatternSyntaxException pse) {
+            finder.clear();
+            findError = pse.getDescription();
+        }
+        jumpPending = true;
+        showFirstMatch();
+        updateFindBar();
+    }
+    //Goes to the first match from the start of the selection on, once there is one
+    private void showFirstMatch() {
+        if (!jumpPending || (finder.getMatches().size() == 0)) {
+            return;
+        }
+        jumpPending = false;
+        select(finder.next(currentText.getSelectionStart() - 1));
+    }
+    private void findNext(boolean forward) {
+        long start = currentText.getSelectionStart();
+        select(forward ? finder.next(start) : finder.previous(start));
+        updateFindBar();
+    }
+    private void select(int match) {
+        if (match >= 0) {
+            MatchIndex matches = finder.getMatches();
+            currentText.select(matches.getStart(match), matches.getEnd(match));
+            requestUpdate(false);
+        }
+    }
+    private void updateFindBar() {
+        String status;
+        if (findError != null) {
+            status = findError;
+        }
+        else {
+            status = finder.getMatches().size() + " matches" + (finder.isSearching() ? ", searching" : "");
+        }
+        findBar.setText((findRegex ? "Find (regex): " : "Find: ") + findQuery + "    " + status);
+    }
+    //Pressing the mouse moves the cursor, and dragging it selects from there
     private class ClickHandler implements EventHandler<MouseEvent> {
         @Override
         public void handle(MouseEvent mouseEvent) {
-            int clickedX = (int) Math.round(mouseEvent.getX());
-            int clickedY = (int) Math.round(mouseEvent.getY() + scrollBar.getValue() * currentText.getTextHeight());
+            if (isScrollBar(mouseEvent.getTarget())) {
+                return;
+            }
+            int clickedX = (int) Math.round(mouseEvent.getX() / zoom.getX());
+            int clickedY = (int) Math.round(mouseEvent.getY() / zoom.getY() + scrollBar.getValue() * currentText.getTextHeight());
+            if (mouseEvent.getEventType() == MouseEvent.MOUSE_DRAGGED) {
+                currentText.startSelection();
+            }
+            else {
+                currentText.clearSelection();
+            }
             currentText.moveCursor(clickedX, clickedY);
-            updateCursorAndScrollBar();
+            requestUpdate(false);
+        }
+        private boolean isScrollBar(Object target) {
+            for (Node node = (target instanceof Node) ? (Node) target : null; node != null; node = node.getParent()) {
+                if (node == scrollBar) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
     private class CursorBlinkHandler implements EventHandler<ActionEvent> {
-        private int blinkIndex = 0;
-        private Color[] blinkColors = {Color.BLACK, Color.WHITE};
+        private boolean visible = true;
         private void blink() {
-            cursor.setFill(blinkColors[blinkIndex]);
-            blinkIndex = (blinkIndex + 1) % blinkColors.length;
+            visible = !visible;
+            renderer.setCursorVisible(visible);
         }
         @Override
         public void handle(ActionEvent event) {
             blink();
         }
     }
+    //Lays out a slice of the file at a time and queues itself until it is all done
+    private class BackgroundLayout implements Runnable {
+        @Override
+        public void run() {
+            if (wrappingInParallel) {
+                //Started again once the parallel job is done
+                layingOut = false;
+                return;
+            }
+            boolean done = currentText.layoutPending(LAYOUTSLICE);
+            scrollBar.setMax(Math.max(0, currentText.getLineCount() - windowHeight / currentText.getTextHeight()));
+            render();
+            if (done) {
+                layingOut = false;
+            }
+            else {
+                Platform.runLater(this);
+            }
+        }
+    }
+    /*Lays out the text and moves the cursor and scroll bar once per pulse, however
+     *many events changed them since the last one.*/
+    private class PulseUpdate implements Runnable {
+        @Override
+        public void run() {
+            long started = System.nanoTime();
+            if (getWrapWidth() != wrapWidth) {
+                //The scroll bar only has a width once it is laid out, so this changes after the first pulse
+                wrapWidth = getWrapWidth();
+                layoutDirty = true;
+                relayoutPending = true;
+            }
+            if (layoutDirty) {
+                currentText.updateList(wrapWidth);
+                if (monitor != null) {
+                    monitor.record(LatencyMonitor.LAYOUT, System.nanoTime() - started);
+                    started = System.nanoTime();
+                }
+            }
+            if (finding) {
+                updateFindBar();
+            }
+            if (layoutDirty || cursorDirty) {
+                updateCursorAndScrollBar();
+                if (monitor != null) {
+                    monitor.record(LatencyMonitor.CURSOR, System.nanoTime() - started);
+                }
+            }
+            else if (viewDirty) {
+                scrollBar.setMax(Math.max(0, currentText.getLineCount() - windowHeight / currentText.getTextHeight()));
+                render();
+            }
+            if (relayoutPending) {
+                //Wrapping starts from where the window has been scrolled to
+                wrappingInParallel = true;
+                parallelLayout.start(currentText, (int) scrollBar.getValue(), new Runnable() {
+                    @Override
+                    public void run() {
+                        wrappingInParallel = false;
+                        wrapRemaining();
+                    }
+                });
+            }
+            layoutDirty = false;
+            cursorDirty = false;
+            viewDirty = false;
+            relayoutPending = false;
+        }
+    }
+    //Times the pulse after each key event and keeps the debug overlay up to date
+    private class PulseMonitor implements Runnable {
+        private long lastOverlay;
+        @Override
+        public void run() {
+            monitor.pulse();
+            long now = System.nanoTime();
+            if (now - lastOverlay > OVERLAYINTERVAL) {
+                lastOverlay = now;
+                Runtime runtime = Runtime.getRuntime();
+                long heap = (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+                overlay.setText(monitor.summary() + "nodes " + countNodes(scene.getRoot())
+                    + "  heap " + heap + " MB");
+            }
+        }
+    }
+    //Reports how saves that ran in the background went.
+    private class SaveReporter implements FileSaver.Listener {
+        @Override
+        public void saved(String savedFile) {
+            System.out.println("The exception-free terminal window fills you with determination.");
+            System.out.println("Saved to " + savedFile);
+            stage.setTitle("Editor - saved " + savedFile);
+            if (journal != null) {
+                long mark = saveMarks.pollFirst();
+                //A later save will move the file on again, so only the last one compacts
+                if (saveMarks.isEmpty()) {
+                    journal.compact(mark);
+                }
+            }
+            if (watcher != null) {
+                watcher.saved(true);
+            }
+        }
+        @Override
+        public void failed(String savedFile, IOException ioe) {
+            System.out.println("Error while writing! Exception was: " + ioe);
+            stage.setTitle("Editor - could not save " + savedFile);
+            saveMarks.pollFirst();
+            if (watcher != null) {
+                watcher.saved(false);
+            }
+        }
+    }
     /*This method has a strange bug: it does not move the scroll bar far enough when
      *moving the cursor down to expose the whole cursor. However it does not deform
      *the text and otherwise works as intended.*/
     public void updateCursorAndScrollBar() {
-        cursor.setX(currentText.getCursorX());
         int currentLine = currentText.getCursorY() / currentText.getTextHeight();
         scrollBar.setMax(Math.max(0, currentText.getLineCount() - windowHeight / currentText.getTextHeight()));
         if (currentLine <= scrollBar.getValue()) {
@@ -173,7 +505,91 @@ public class Editor extends Application {
         else if (currentLine > scrollBar.getValue() + scene.getHeight() / currentText.getTextHeight()) {
             scrollBar.setValue(currentLine + 1 - scene.getHeight() / currentText.getTextHeight());
         }
-        cursor.setY(currentText.getCursorY());
+        render();
+    }
+    //Draws the window, which holds more of the text while it is scaled down
+    private void render() {
+        renderer.render((int) scrollBar.getValue(), (int) Math.ceil(windowWidth / zoom.getX()),
+            (int) Math.ceil(windowHeight / zoom.getY()));
+    }
+    //The width lines are wrapped to, which leaves room for the scroll bar
+    private int getWrapWidth() {
+        return windowWidth - (int) Math.round(scrollBar.getLayoutBounds().getWidth());
+    }
+    /*Shows the text at a new font size straight away by scaling what is drawn,
+     *and wraps it at that size once the size has stopped changing.*/
+    private void zoomTo(int newSize) {
+        fontSize = newSize;
+        double scale = (double) fontSize / currentText.getSize();
+        zoom.setX(scale);
+        zoom.setY(scale);
+        render();
+        zoomDelay.playFromStart();
+    }
+    /*Switches to the size zoomed to at once if its layout is still kept, and
+     *otherwise wraps every paragraph at that size in the background and swaps
+     *them all in when they are done, the scaled text staying up until then.*/
+    private void finishZoom() {
+        if (currentText.hasLayoutFor(fontSize, getWrapWidth())) {
+            parallelLayout.cancelPrepare();
+            currentText.setSize(fontSize);
+            endZoom();
+            return;
+        }
+        final int size = fontSize;
+        final List<Layout.Batch> batches = currentText.getBatchesFor(size, getWrapWidth(), ZOOMBATCHSIZE);
+        parallelLayout.prepare(batches, new Runnable() {
+            @Override
+            public void run() {
+                currentText.applyLayout(size, getWrapWidth(), batches);
+                endZoom();
+            }
+        });
+    }
+    //Stops scaling once the text is laid out at the new size, and wraps whatever edits left behind
+    private void endZoom() {
+        zoom.setX(1);
+        zoom.setY(1);
+        requestUpdate(true);
+        layoutInBackground();
+    }
+    //Asks for the layout, cursor and scroll bar to be updated before the next frame.
+    public void requestUpdate(boolean textChanged) {
+        layoutDirty = layoutDirty || textChanged;
+        cursorDirty = true;
+        Platform.requestNextPulse();
+    }
+    /*Wraps the whole file again in parallel, once the next pulse has set the
+     *new width and font, replacing any job already running.*/
+    public void layoutInBackground() {
+        relayoutPending = true;
+        Platform.requestNextPulse();
+    }
+    /*Takes in what a file still being counted has gained, or all of it if wait
+     *is set, and lays out and searches it like the rest.*/
+    private void grow(boolean wait) {
+        long from = currentText.getLength();
+        if (wait) {
+            currentText.finishLoading();
+        }
+        else {
+            currentText.grow();
+        }
+        if (currentText.getLength() > from) {
+            finder.grown(from);
+            viewDirty = true;
+            layoutInBackground();
+        }
+        if (!currentText.isLoading() && (watcher != null)) {
+            watcher.loaded();
+        }
+    }
+    //Finishes whatever the parallel layout left, and counts the lines of large files.
+    private void wrapRemaining() {
+        if (!layingOut) {
+            layingOut = true;
+            Platform.runLater(new BackgroundLayout());
+        }
     }
     //To be called in start().
     public void beginCursorBlink(double interval) {
@@ -184,6 +600,15 @@ public class Editor extends Application {
         timeline.getKeyFrames().add(keyframe);
         timeline.play();
     }
+    private static int countNodes(Node node) {
+        int count = 1;
+        if (node instanceof Parent) {
+            for (Node child : ((Parent) node).getChildrenUnmodifiable()) {
+                count += countNodes(child);
+            }
+        }
+        return count;
+    }
     //To only be used in debug mode.
     public void debugPrint(String stringToPrint) {
         if (debugMode) {
@@ -192,63 +617,67 @@ public class Editor extends Application {
     }
     @Override
     public void start(Stage primaryStage) {
+        stage = primaryStage;
+        saver = new FileSaver(new SaveReporter());
         // Create a Node that will be the parent of all things displayed on the screen.
         Group root = new Group();
-        Group textRoot = new Group();
+        final Group textRoot = new Group();
         root.getChildren().add(textRoot);
-        currentText = new TextList(DEFAULTFONT, INITIALFONTSIZE, MARGIN, textRoot);
-        cursor = new Rectangle();
-        cursor.setX(MARGIN);
-        cursor.setY(0);
-        cursor.setWidth(1);
-        cursor.setHeight(currentText.getTextHeight());
-        textRoot.getChildren().add(cursor);
-        beginCursorBlink(BLINKINTERVAL);
+        //Scaled about the top left of the window
+        zoom = new Scale(1, 1);
+        textRoot.getTransforms().add(zoom);
+        zoomDelay = new PauseTransition(Duration.seconds(ZOOMDELAY));
+        zoomDelay.setOnFinished(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent event) {
+                finishZoom();
+            }
+        });
+        currentText = new TextList(DEFAULTFONT, INITIALFONTSIZE, MARGIN, GlyphCache.SOURCE);
         List<String> arguments = getParameters().getRaw();
-        if (arguments.size() == 1) {
-            filename = arguments.get(0);
-            debugMode = false;
+        if (arguments.size() == 0) {
+            System.out.println("Error: expected filename");
+            System.exit(1);
         }
-        else if (arguments.size() >= 2) {
-            filename = arguments.get(0);
-            debugMode = (arguments.get(1).equals("debug"));
+        //After the filename come options: "debug", and "canvas" to paint onto a Canvas
+        filename = arguments.get(0);
+        List<String> options = arguments.subList(1, arguments.size());
+        debugMode = options.contains("debug");
+        if (options.contains("canvas")) {
+            renderer = new CanvasRenderer(currentText, textRoot, MARGIN);
         }
         else {
-            System.out.println("Error: expected filename");
-            System.exit(1);
+            renderer = new Viewport(currentText, textRoot, MARGIN);
         }
+        beginCursorBlink(BLINKINTERVAL);
         try {
             File inputFile = new File(filename);
             if (inputFile.exists()) {
-                FileReader reader = new FileReader(inputFile);
-                BufferedReader bufferedReader = new BufferedReader(reader);
-                int intRead = -1;
-                while ((intRead = bufferedReader.read()) != -1) {
-                    char charRead = (char) intRead;
-                    if ((charRead == '\r') 
-                    || (charRead == '\n') 
-                    || (String.valueOf(charRead) == "\n\r")) {
-                        currentText.type("\r");
-                    }
-                    else {
-                        currentText.type(String.valueOf(charRead));
-                    }
-                }
-                bufferedReader.close();
+                currentText.load(FileLoader.open(filename));
             }
-        } catch (FileNotFoundException fnfe) {
-            System.out.println("File not found! Exception was: " + fnfe);
         } catch (IOException ioe) {
             System.out.println("Error while reading! Exception was: " + ioe);
         }
+        //Edits that were not saved before a crash are still in the journal
+        saveMarks = new ArrayDeque<Long>();
+        try {
+            journal = EditJournal.open(filename, currentText);
+            if (journal.getRecovered() > 0) {
+                System.out.println("Recovered " + journal.getRecovered() + " unsaved edits to " + filename);
+            }
+            currentText.addListener(journal);
+        } catch (IOException ioe) {
+            System.out.println("Error while opening the journal! Exception was: " + ioe);
+        }
         // The Scene represents the window: its height and width will be the height and width
         // of the window displayed.
         windowWidth = INITIALSCREENWIDTH;
         windowHeight = INITIALSCREENHEIGHT;
-        currentText.updateList(windowWidth);
+        scrollBar = new ScrollBar();
+        wrapWidth = getWrapWidth();
+        currentText.updateList(wrapWidth);
         currentText.moveCursor(MARGIN, 0);
         //Initialize and configure the scroll bar
-        scrollBar = new ScrollBar();
         scrollBar.setMin(0);
         scrollBar.setMax(Math.max(0, Math.round(currentText.getLineCount() - windowHeight / currentText.getTextHeight())));
         scrollBar.setOrientation(Orientation.VERTICAL);
@@ -260,10 +689,13 @@ public class Editor extends Application {
                                     Number newValue) {
                     //Adjust the text upon scrolling down or up
                     textRoot.setLayoutY(-1 * currentText.getTextHeight() * newValue.intValue());
+                    zoom.setPivotY(currentText.getTextHeight() * newValue.intValue());
+                    render();
                 }
             }
         );
         root.getChildren().add(scrollBar);
+        render();
         scene = new Scene(root, windowWidth, windowHeight, Color.WHITE);
         scene.widthProperty().addListener(new ChangeListener<Number>() {
             @Override
@@ -272,10 +704,12 @@ public class Editor extends Application {
                 Number oldScreenWidth,
                 Number newScreenWidth) {
                     windowWidth = newScreenWidth.intValue();
-                    currentText.updateList((int) Math.round(windowWidth - scrollBar.getLayoutBounds().getWidth()));
+                    wrapWidth = getWrapWidth();
+                    currentText.updateList(wrapWidth);
                     scrollBar.setLayoutX(windowWidth - scrollBar.getLayoutBounds().getWidth());
                     scrollBar.setMax(Math.max(0, Math.ceil(currentText.getLineCount() - windowHeight / currentText.getTextHeight())));
                     updateCursorAndScrollBar();
+                    layoutInBackground();
                 }
             }
         );
@@ -288,6 +722,7 @@ public class Editor extends Application {
                     windowHeight = newScreenHeight.intValue();
                     scrollBar.setMax(Math.max(0, Math.ceil(currentText.getLineCount() - windowHeight / currentText.getTextHeight())));
                     scrollBar.setPrefHeight(windowHeight);
+                    render();
                 }
             }
         );
@@ -299,11 +734,140 @@ public class Editor extends Application {
         // Register the event handler to be called for all KEY_PRESSED and KEY_TYPED events.
         scene.setOnKeyTyped(keyEventHandler);
         scene.setOnKeyPressed(keyEventHandler);
-        scene.setOnMouseClicked(clickHandler);
+        scene.setOnMousePressed(clickHandler);
+        scene.setOnMouseDragged(clickHandler);
+        scene.addPreLayoutPulseListener(new PulseUpdate());
+        Executor fxThread = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                Platform.runLater(runnable);
+            }
+        };
+        parallelLayout = new ParallelLayout(fxThread, new Runnable() {
+            @Override
+            public void run() {
+                viewDirty = true;
+                Platform.requestNextPulse();
+            }
+        });
+        //Matches found in the background are shown as they come in
+        finder = new Finder(currentText, fxThread, new Runnable() {
+            @Override
+            public void run() {
+                showFirstMatch();
+                updateFindBar();
+                viewDirty = true;
+                Platform.requestNextPulse();
+            }
+        });
+        currentText.addListener(finder);
+        renderer.setMatches(finder.getMatches());
+        //Files of a known kind are highlighted in the background, except ones too big to split into paragraphs
+        Lexer lexer = CodeLexer.forFile(filename);
+        if ((lexer != null) && !currentText.isSparse()) {
+            highlighter = new Highlighter(currentText, lexer, fxThread, new Runnable() {
+                @Override
+                public void run() {
+                    viewDirty = true;
+                    Platform.requestNextPulse();
+                }
+            });
+            currentText.addListener(highlighter);
+            renderer.setHighlighter(highlighter);
+        }
+        //Changes other programs make to the file show up as edits
+        try {
+            final Runnable refresh = new Runnable() {
+                @Override
+                public void run() {
+                    //The text matches the file again, so the journal has nothing to keep
+                    if ((journal != null) && saveMarks.isEmpty()) {
+                        journal.compact(journal.mark());
+                    }
+                    requestUpdate(true);
+                }
+            };
+            watcher = FileWatcher.watch(filename, currentText, fxThread, refresh, new Runnable() {
+                @Override
+                public void run() {
+                    //A change too large to be an edit loads the file again, so its matches are found again too
+                    refresh.run();
+                    if (finding) {
+                        startFind();
+                    }
+                    layoutInBackground();
+                }
+            }, (journal != null) && (journal.getRecovered() > 0));
+            currentText.addListener(watcher);
+        } catch (IOException ioe) {
+            System.out.println("Error while watching the file! Exception was: " + ioe);
+        }
+        //A large file is shown while the rest of it is counted, and grows as it is
+        currentText.setGrowthListener(new Runnable() {
+            @Override
+            public void run() {
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        grow(false);
+                    }
+                });
+            }
+        });
+        findBar = new Label();
+        findBar.setStyle("-fx-background-color: khaki; -fx-padding: 2 5 2 5;");
+        findBar.layoutYProperty().bind(scene.heightProperty().subtract(findBar.heightProperty()));
+        findBar.setVisible(false);
+        root.getChildren().add(findBar);
+        if (debugMode) {
+            monitor = new LatencyMonitor();
+            overlay = new Text();
+            overlay.setFont(Font.font("Monospaced", OVERLAYFONTSIZE));
+            overlay.setFill(Color.GRAY);
+            overlay.setTextOrigin(VPos.TOP);
+            overlay.setLayoutX(MARGIN);
+            overlay.setMouseTransparent(true);
+            root.getChildren().add(overlay);
+            scene.addPostLayoutPulseListener(new PulseMonitor());
+        }
         primaryStage.setTitle("Editor");
         // This is boilerplate, necessary to setup the window where things are displayed.
         primaryStage.setScene(scene);
         primaryStage.show();
+        layoutInBackground();
+    }
+    @Override
+    public void stop() throws InterruptedException {
+        //Give a save that is still running the chance to finish
+        saver.shutdown();
+        if (highlighter != null) {
+            highlighter.shutdown();
+        }
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ioe) {
+                System.out.println("Error while closing the file watcher! Exception was: " + ioe);
+            }
+        }
+        boolean saved = saver.awaitTermination(SAVETIMEOUT);
+        /*Closing the window drops unsaved edits as before, so the journal is only
+         *kept if a save did not finish.*/
+        if (journal != null) {
+            try {
+                journal.close(!saved);
+            } catch (IOException ioe) {
+                System.out.println("Error while closing the journal! Exception was: " + ioe);
+            }
+        }
+        if (monitor != null) {
+            try {
+                monitor.dump(Paths.get(LATENCYFILE));
+                System.out.println("Latencies written to " + LATENCYFILE);
+            } catch (IOException ioe) {
+                System.out.println("Error while writing latencies! Exception was: " + ioe);
+            }
+        }
     }
     public static void main(String[] args) {
         launch(args);
@@ -0,0 +1,101 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+/* FileLoader
+ * Reads a whole file into memory in large chunks, decoding it with an
+ * explicit charset and turning every kind of line ending into the '\r'
+ * TextList uses for newlines in the same pass. Files too large for that
+ * are opened as a MappedText instead, which decodes them the same way a
+ * page at a time.
+ */
+public class FileLoader {
+    public static final Charset CHARSET = StandardCharsets.UTF_8;
+    private static final int CHUNKSIZE = 1 << 20;
+    private static final long MAPTHRESHOLD = 1 << 26; //Larger files are opened as MappedText
+    private CharsetDecoder decoder;
+    private boolean afterReturn; //Whether the last character normalized was a '\r'
+    public FileLoader() {
+        decoder = CHARSET.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    //Returns the contents of the file with its line endings normalized
+    public static String read(String filename) throws IOException {
+        return new FileLoader().readAll(Paths.get(filename));
+    }
+    //Reads the file, or maps it if it is too large to read
+    public static TextSource open(String filename) throws IOException {
+        Path path = Paths.get(filename);
+        if (Files.size(path) > MAPTHRESHOLD) {
+            return new MappedText(path);
+        }
+        return new TextSource.Chars(new FileLoader().readAll(path));
+    }
+    public String readAll(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to load (" + size + " bytes)");
+            }
+            //A byte never decodes to more than one char in UTF-8
+            char[] text = new char[(int) size];
+            int length = 0;
+            ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNKSIZE);
+            CharBuffer chars = CharBuffer.allocate(CHUNKSIZE);
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                endOfInput = (channel.read(bytes) < 0);
+                bytes.flip();
+                decoder.decode(bytes, chars, endOfInput);
+                if (endOfInput) {
+                    decoder.flush(chars);
+                }
+                chars.flip();
+                length = normalize(chars, text, length);
+                chars.clear();
+                bytes.compact();
+            }
+            return new String(text, 0, length);
+        }
+    }
+    /*Decodes bytes added to the end of a file, afterReturn saying whether the
+     *byte before them was a '\r', and normalizes their line endings. The bytes
+     *of a character cut off at the end are left in bytes.*/
+    public String decodeAppended(ByteBuffer bytes, boolean afterReturn) {
+        this.afterReturn = afterReturn;
+        CharBuffer chars = CharBuffer.allocate(bytes.remaining());
+        decoder.decode(bytes, chars, false);
+        chars.flip();
+        char[] text = new char[chars.remaining()];
+        return new String(text, 0, normalize(chars, text, 0));
+    }
+    /*Copies chars into text at the given length, turning "\r\n", "\n" and "\r"
+     *into a single '\r'. Returns the new length.*/
+    public int normalize(CharBuffer chars, char[] text, int length) {
+        while (chars.hasRemaining()) {
+            char current = chars.get();
+            if (current == '\n') {
+                if (!afterReturn) {
+                    text[length++] = '\r';
+                }
+                afterReturn = false;
+            }
+            else {
+                text[length++] = current;
+                afterReturn = (current == '\r');
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,180 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javafx.application.Platform;
+/* FileSaver
+ * Writes snapshots of the text to disk on a background thread. Each save
+ * goes to a temporary file next to the target, which is flushed to disk
+ * and then renamed over the target, so a crash part way through leaves
+ * the old file alone. Saves run one at a time in the order requested.
+ */
+public class FileSaver {
+    private static final int CHUNKSIZE = 1 << 20;
+    private ExecutorService executor;
+    private Listener listener;
+    //Told about the result of each save, on the JavaFX application thread
+    public interface Listener {
+        void saved(String filename);
+        void failed(String filename, IOException error);
+    }
+    public FileSaver(Listener listener) {
+        this.listener = listener;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FileSaver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    private class SaveTask implements Runnable {
+        private PieceTable text;
+        private String filename;
+        private IOException error;
+        private SaveTask(PieceTable text, String filename) {
+            this.text = text;
+            this.filename = filename;
+        }
+        @Override
+        public void run() {
+            try {
+                write(text, Paths.get(filename));
+            } catch (IOException ioe) {
+                error = ioe;
+            }
+            Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (error == null) {
+                        listener.saved(filename);
+                    }
+                    else {
+                        listener.failed(filename, error);
+                    }
+                }
+            });
+        }
+    }
+    //Starts saving text, which must not be edited afterwards (use PieceTable.snapshot)
+    public void save(PieceTable text, String filename) {
+        executor.execute(new SaveTask(text, filename));
+    }
+    //Lets queued saves finish, without taking new ones
+    public void shutdown() {
+        executor.shutdown();
+    }
+    public boolean awaitTermination(long seconds) throws InterruptedException {
+        return executor.awaitTermination(seconds, TimeUnit.SECONDS);
+    }
+    //Saves text to target on the calling thread
+    public static void write(PieceTable text, Path target) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), "." + absolute.getFileName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                writeText(text, channel);
+                channel.force(true);
+            }
+            if (Files.exists(absolute)) {
+                try {
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(absolute));
+                } catch (UnsupportedOperationException uoe) {
+                    //Not a POSIX file system, the temporary file's permissions will do
+                }
+            }
+            try {
+                Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    /*Writes the text to the channel. Text that came from a MappedText is
+     *copied byte for byte, and the rest is encoded a chunk at a time with
+     *each '\r' turned back into '\n'. A piece that starts or ends half way
+     *through a surrogate pair has that half encoded with the text around it.*/
+    private static void writeText(PieceTable text, FileChannel channel) throws IOException {
+        char[] chars = new char[CHUNKSIZE];
+        ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNKSIZE * 3);
+        if (!(text.getOriginal() instanceof MappedText)) {
+            encode(text, 0, text.length(), channel, chars, bytes);
+            return;
+        }
+        MappedText original = (MappedText) text.getOriginal();
+        long from = 0;
+        long encodeFrom = 0; //The text from here to from is still to be encoded
+        for (int i = 0; i < text.getPieceCount(); i++) {
+            long length = text.getPieceLength(i);
+            if (text.isOriginalPiece(i)) {
+                long pieceStart = text.getPieceStart(i);
+                int head = (original.getBytePosition(pieceStart) < 0) ? 1 : 0;
+                int tail = ((length > head) && (original.getBytePosition(pieceStart + length) < 0)) ? 1 : 0;
+                long start = original.getBytePosition(pieceStart + head);
+                long end = original.getBytePosition(pieceStart + length - tail);
+                if (end > start) {
+                    encode(text, encodeFrom, from + head, channel, chars, bytes);
+                    original.write(channel, start, end);
+                    encodeFrom = from + length - tail;
+                }
+            }
+            from += length;
+        }
+        encode(text, encodeFrom, from, channel, chars, bytes);
+    }
+    private static void encode(PieceTable text, long from, long to, FileChannel channel,
+        char[] chars, ByteBuffer bytes) throws IOException {
+        CharsetEncoder encoder = FileLoader.CHARSET.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer charBuffer = CharBuffer.wrap(chars);
+        int carried = 0; //A high surrogate held back from the end of the last chunk
+        while (from < to) {
+            long chunkEnd = Math.min(to, from + chars.length - carried);
+            text.getChars(from, chunkEnd, chars, carried);
+            int count = carried + (int) (chunkEnd - from);
+            for (int i = carried; i < count; i++) {
+                if (chars[i] == '\r') {
+                    chars[i] = '\n';
+                }
+            }
+            charBuffer.position(0).limit(count);
+            from = chunkEnd;
+            CoderResult result = encoder.encode(charBuffer, bytes, from == to);
+            if (result.isError()) {
+                result.throwException();
+            }
+            carried = charBuffer.remaining();
+            charBuffer.compact();
+            writeAll(bytes, channel);
+        }
+        encoder.encode(CharBuffer.allocate(0), bytes, true);
+        encoder.flush(bytes);
+        writeAll(bytes, channel);
+    }
+    private static void writeAll(ByteBuffer bytes, FileChannel channel) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
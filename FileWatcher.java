@@ -0,0 +1,372 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+/* FileWatcher
+ * Notices when another program changes the file being edited and brings
+ * the text up to date with as small an edit as it can, so the cursor, the
+ * undo history and the layout of the rest of the text are left alone.
+ * When the file has only grown and the last few kilobytes the text was
+ * read from are still there, only the new bytes are read and added to the
+ * end, which is all following a log costs. Anything else is read in full
+ * and compared with a snapshot of the text from both ends, and what lies
+ * between the parts they share is replaced, unless that is more than an
+ * edit can hold, in which case the text is loaded from the file again.
+ * Reading and comparing happen
+ * on a thread of their own, and nothing is changed while the text has
+ * edits that have not been saved, which the next save writes over the
+ * file's new contents as before.
+ */
+public class FileWatcher implements TextList.Listener {
+    private static final int TAILSIZE = 1 << 12; //The bytes at the end of the file checked before appending
+    private static final int CHUNKSIZE = 1 << 16;
+    private Path path;
+    private TextList text;
+    private Executor publisher; //Runs tasks on the JavaFX thread
+    private Runnable refresh; //Told when the text was changed to match the file, on the JavaFX thread
+    private Runnable reload; //Told instead when the text was loaded from the file again
+    private WatchService watchService;
+    private ExecutorService worker;
+    private AtomicBoolean eventPending = new AtomicBoolean();
+    private Stamp synced; //The file as it was when the text last matched it
+    private int edits; //Changes made to the text other than by the watcher
+    private int savedEdits; //How many there had been when the text last matched the file
+    private Deque<Integer> saves; //How many there had been when each running save started
+    private boolean applying;
+    private boolean checking; //Whether the file is being read on the worker
+    private boolean checkAgain; //Whether the file changed again while it was, or while a save was running
+    //The size, time and last bytes of the file at some point, all as they were then
+    private static class Stamp {
+        private long size;
+        private long modified;
+        private byte[] tail;
+        private Stamp(long size, long modified, byte[] tail) {
+            this.size = size;
+            this.modified = modified;
+            this.tail = tail;
+        }
+        //Returns the file as it is now, or a stamp of size -1 if there is no file
+        private static Stamp read(Path path) throws IOException {
+            if (!Files.exists(path)) {
+                return new Stamp(-1, -1, new byte[0]);
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                return new Stamp(size, modified, readBytes(channel, Math.max(0, size - TAILSIZE), size));
+            }
+        }
+        private boolean isSameAs(Stamp other) {
+            return (size == other.size) && (modified == other.modified);
+        }
+    }
+    /*The edit that makes the text as it was when the check started match the
+     *file, or the file's whole text if that is too much for one edit.*/
+    private static class Diff {
+        private int edits;
+        private Stamp stamp;
+        private long offset;
+        private int removedLength;
+        private String inserted;
+        private TextSource contents; //Null unless the text is to be loaded again
+        private Diff(int edits, Stamp stamp, long offset, int removedLength, String inserted) {
+            this.edits = edits;
+            this.stamp = stamp;
+            this.offset = offset;
+            this.removedLength = removedLength;
+            this.inserted = inserted;
+        }
+        private Diff(int edits, Stamp stamp, TextSource contents) {
+            this.edits = edits;
+            this.stamp = stamp;
+            this.contents = contents;
+        }
+    }
+    private FileWatcher(String filename, TextList text, Executor publisher, Runnable refresh, Runnable reload) {
+        path = Paths.get(filename).toAbsolutePath();
+        this.text = text;
+        this.publisher = publisher;
+        this.refresh = refresh;
+        this.reload = reload;
+        saves = new ArrayDeque<Integer>();
+        worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FileWatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    /*Starts watching a file that text was just loaded from. If unsaved is set,
+     *the text already has edits the file doesn't, recovered from a journal.
+     *refresh is told when the text was edited to match the file, and reload
+     *when it was loaded from the file again, which its listeners don't hear.*/
+    public static FileWatcher watch(String filename, TextList text, Executor publisher,
+        Runnable refresh, Runnable reload, boolean unsaved) throws IOException {
+        FileWatcher fileWatcher = new FileWatcher(filename, text, publisher, refresh, reload);
+        fileWatcher.synced = Stamp.read(fileWatcher.path);
+        fileWatcher.edits = unsaved ? 1 : 0;
+        fileWatcher.start();
+        return fileWatcher;
+    }
+    //Listens for changes to the directory holding the file on a thread of its own
+    private void start() throws IOException {
+        watchService = path.getFileSystem().newWatchService();
+        path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchEvents();
+            }
+        }, "FileWatcher events");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    private void watchEvents() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (path.getFileName().equals(event.context())) {
+                        scheduleCheck();
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException ie) {
+            //Stopped
+        } catch (ClosedWatchServiceException cwse) {
+            //Stopped
+        }
+    }
+    //One check on the JavaFX thread covers all the events that came in before it
+    private void scheduleCheck() {
+        if (eventPending.getAndSet(true)) {
+            return;
+        }
+        publisher.execute(new Runnable() {
+            @Override
+            public void run() {
+                eventPending.set(false);
+                check();
+            }
+        });
+    }
+    public void close() throws IOException {
+        watchService.close();
+        worker.shutdownNow();
+    }
+    @Override
+    public void changed(List<TextChange> changes) {
+        if (!applying) {
+            edits += changes.size();
+        }
+    }
+    //Called as a save of the text starts
+    public void saving() {
+        saves.addLast(edits);
+    }
+    //Called when a save finishes, after which the file is what the text was when it started
+    public void saved(boolean succeeded) {
+        int savedAt = saves.pollFirst();
+        if (succeeded) {
+            try {
+                synced = Stamp.read(path);
+                savedEdits = savedAt;
+            } catch (IOException ioe) {
+                System.out.println("Error while checking the saved file! Exception was: " + ioe);
+            }
+        }
+        if (checkAgain && saves.isEmpty()) {
+            checkAgain = false;
+            check();
+        }
+    }
+    //Called once the text has taken in the whole of a file that was counted in the background
+    public void loaded() {
+        if (checkAgain) {
+            checkAgain = false;
+            check();
+        }
+    }
+    //Starts reading the file on the worker, unless the text can't be changed to match it now
+    private void check() {
+        if (checking || !saves.isEmpty() || text.isLoading()) {
+            //A save changes the file, so wait until it is known what it wrote, and compare only all of it
+            checkAgain = true;
+            return;
+        }
+        if (edits != savedEdits) {
+            try {
+                Stamp current = Stamp.read(path);
+                if (!current.isSameAs(synced)) {
+                    System.out.println(path + " changed on disk, keeping the edits that have not been saved");
+                    synced = current;
+                }
+            } catch (IOException ioe) {
+                System.out.println("Error while checking the file! Exception was: " + ioe);
+            }
+            return;
+        }
+        checking = true;
+        final PieceTable snapshot = text.snapshot();
+        final Stamp checkSynced = synced;
+        final int checkEdits = edits;
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                Diff found = null;
+                try {
+                    found = diff(snapshot, checkSynced, checkEdits);
+                } catch (IOException ioe) {
+                    System.out.println("Error while reading the changed file! Exception was: " + ioe);
+                }
+                final Diff diff = found;
+                publisher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        apply(diff);
+                    }
+                });
+            }
+        });
+    }
+    //Returns the edit that brings snapshot up to the file, or null if the file is as it was
+    private Diff diff(PieceTable snapshot, Stamp checkSynced, int checkEdits) throws IOException {
+        Stamp current = Stamp.read(path);
+        if ((current.size < 0) || current.isSameAs(checkSynced)) {
+            return null;
+        }
+        if ((checkSynced.size >= 0) && (current.size >= checkSynced.size)
+            && (current.size - checkSynced.size <= Integer.MAX_VALUE)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                byte[] tail = readBytes(channel, checkSynced.size - checkSynced.tail.length, checkSynced.size);
+                if (Arrays.equals(tail, checkSynced.tail)) {
+                    return append(channel, snapshot, checkSynced, current, checkEdits);
+                }
+            }
+        }
+        //The start of the file changed too, so compare all of it
+        TextSource contents = FileLoader.open(path.toString());
+        contents.awaitComplete();
+        long length = snapshot.length();
+        long newLength = contents.length();
+        char[] chunk = new char[CHUNKSIZE];
+        long prefix = 0;
+        while (prefix < Math.min(length, newLength)) {
+            int chunkLength = (int) Math.min(CHUNKSIZE, Math.min(length, newLength) - prefix);
+            snapshot.getChars(prefix, prefix + chunkLength, chunk, 0);
+            int i = 0;
+            while ((i < chunkLength) && (chunk[i] == contents.charAt(prefix + i))) {
+                i += 1;
+            }
+            prefix += i;
+            if (i < chunkLength) {
+                break;
+            }
+        }
+        long suffix = 0;
+        while (suffix < Math.min(length, newLength) - prefix) {
+            int chunkLength = (int) Math.min(CHUNKSIZE, Math.min(length, newLength) - prefix - suffix);
+            snapshot.getChars(length - suffix - chunkLength, length - suffix, chunk, 0);
+            int i = 0;
+            while ((i < chunkLength)
+                && (chunk[chunkLength - 1 - i] == contents.charAt(newLength - suffix - 1 - i))) {
+                i += 1;
+            }
+            suffix += i;
+            if (i < chunkLength) {
+                break;
+            }
+        }
+        long removedLength = length - suffix - prefix;
+        long insertedLength = newLength - suffix - prefix;
+        if ((removedLength > Integer.MAX_VALUE) || (insertedLength > Integer.MAX_VALUE)) {
+            return new Diff(checkEdits, current, contents);
+        }
+        char[] inserted = new char[(int) insertedLength];
+        contents.getChars(prefix, newLength - suffix, inserted, 0);
+        return new Diff(checkEdits, current, prefix, (int) removedLength, new String(inserted));
+    }
+    /*Reads the bytes added to the end of the file, up to the last whole
+     *character, as an insertion at the end of the text.*/
+    private Diff append(FileChannel channel, PieceTable snapshot, Stamp checkSynced, Stamp current,
+        int checkEdits) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(readBytes(channel, checkSynced.size, current.size));
+        boolean afterReturn = (checkSynced.tail.length > 0) && (checkSynced.tail[checkSynced.tail.length - 1] == '\r');
+        String appended = new FileLoader().decodeAppended(bytes, afterReturn);
+        //The text now matches the file up to the end of the last whole character
+        long size = checkSynced.size + bytes.position();
+        byte[] tail = new byte[(int) Math.min(TAILSIZE, size)];
+        int fromOld = Math.max(0, tail.length - bytes.position());
+        System.arraycopy(checkSynced.tail, checkSynced.tail.length - fromOld, tail, 0, fromOld);
+        System.arraycopy(bytes.array(), bytes.position() - (tail.length - fromOld), tail, fromOld, tail.length - fromOld);
+        Stamp stamp = new Stamp(size, (size == current.size) ? current.modified : -1, tail);
+        return new Diff(checkEdits, stamp, snapshot.length(), 0, appended);
+    }
+    //Makes a diff's edit, if the text hasn't been edited since it was found
+    private void apply(Diff diff) {
+        checking = false;
+        if (diff != null) {
+            if ((diff.edits != edits) || !saves.isEmpty()) {
+                //The text changed, or is being saved over the file, since the check started
+                checkAgain = true;
+            }
+            else if (diff.contents != null) {
+                text.load(diff.contents);
+                synced = diff.stamp;
+                reload.run();
+            }
+            else {
+                if ((diff.removedLength > 0) || !diff.inserted.isEmpty()) {
+                    applying = true;
+                    text.beginChanges();
+                    if (diff.removedLength > 0) {
+                        text.delete(diff.offset, diff.offset + diff.removedLength);
+                    }
+                    if (!diff.inserted.isEmpty()) {
+                        text.insert(diff.offset, diff.inserted);
+                    }
+                    text.endChanges();
+                    applying = false;
+                }
+                synced = diff.stamp;
+                refresh.run();
+            }
+        }
+        if (checkAgain) {
+            checkAgain = false;
+            check();
+        }
+    }
+    private static byte[] readBytes(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) (to - from));
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, from + bytes.position()) < 0) {
+                break;
+            }
+        }
+        return Arrays.copyOf(bytes.array(), bytes.position());
+    }
+}
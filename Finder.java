@@ -0,0 +1,359 @@
+package editor;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+/* Finder
+ * Searches the text for a string, or a regular expression, and keeps the
+ * matches in a MatchIndex. A new search cuts a snapshot of the text into
+ * chunks that are searched in parallel, starting with the chunk at the
+ * cursor, and each chunk's matches are added to the index on the JavaFX
+ * thread as soon as they are found. Strings are found with a
+ * Boyer-Moore-Horspool scan over the characters of a chunk, and
+ * expressions are matched a line at a time, so no match spans a newline.
+ * A batch of changes only searches the characters around them again, and
+ * the text a file still being counted grows by is searched as it comes in.
+ */
+public class Finder implements TextList.Listener {
+    private static final int CHUNKSIZE = 1 << 20;
+    private TextList text;
+    private Executor publisher; //Runs tasks on the JavaFX thread
+    private Runnable refresh; //Told when matches are added, on the JavaFX thread
+    private MatchIndex matches;
+    private Query query; //Null when nothing is being looked for
+    private volatile int job; //Bumped to cancel the chunks of older searches
+    private int remaining; //Chunks of the current search not added yet
+    /*While chunks are being searched, to bring their results up to date: each
+     *change, as its offset, removed and inserted lengths, and each part of the
+     *text searched again, as where it starts and ends. A chunk only takes the
+     *ones made after its snapshot.*/
+    private List<long[]> edits;
+    public Finder(TextList text, Executor publisher, Runnable refresh) {
+        this.text = text;
+        this.publisher = publisher;
+        this.refresh = refresh;
+        matches = new MatchIndex();
+        edits = new ArrayList<long[]>();
+    }
+    /*Starts looking for query, as a regular expression if regex is set, with
+     *the chunk holding offset first. Throws PatternSyntaxException if the
+     *expression is not valid.*/
+    public void find(String query, boolean regex, long offset) {
+        Query newQuery = query.isEmpty() ? null : new Query(query, regex);
+        clear();
+        if (newQuery == null) {
+            return;
+        }
+        this.query = newQuery;
+        PieceTable snapshot = text.snapshot();
+        search(snapshot, 0, snapshot.length(), offset);
+    }
+    /*Searches the characters the text grew by at its end, from offset on,
+     *along with the ones before them a match could start in: those a string
+     *could overlap, or the rest of the line of an expression.*/
+    public void grown(long offset) {
+        if (query == null) {
+            return;
+        }
+        PieceTable snapshot = text.snapshot();
+        long from;
+        if (query.pattern == null) {
+            from = Math.max(0, offset - query.text.length() + 1);
+        }
+        else {
+            from = offset;
+            while ((from > 0) && (snapshot.charAt(from - 1) != '\r')) {
+                from -= 1;
+            }
+            matches.remove(from, offset);
+            if (remaining > 0) {
+                edits.add(new long[] {from, offset});
+            }
+        }
+        search(snapshot, from, snapshot.length(), from);
+    }
+    //Searches [from, to) of a snapshot in chunks, starting with the one holding offset
+    private void search(PieceTable snapshot, long from, long to, long offset) {
+        int chunks = (int) Math.max(1, (to - from + CHUNKSIZE - 1) / CHUNKSIZE);
+        int first = (int) Math.min((offset - from) / CHUNKSIZE, chunks - 1);
+        remaining += chunks;
+        for (int i = 0; i < chunks; i++) {
+            long start = from + (long) ((first + i) % chunks) * CHUNKSIZE;
+            ForkJoinPool.commonPool().execute(new ChunkSearch(job, query, snapshot, edits.size(), start,
+                Math.min(to, start + CHUNKSIZE)));
+        }
+    }
+    //Stops looking and forgets the matches
+    public void clear() {
+        job += 1;
+        query = null;
+        remaining = 0;
+        edits.clear();
+        matches.clear();
+    }
+    public MatchIndex getMatches() {
+        return matches;
+    }
+    public boolean isSearching() {
+        return remaining > 0;
+    }
+    //Returns the first match starting after offset, going round to the top, or -1 if there is none
+    public int next(long offset) {
+        if (matches.size() == 0) {
+            return -1;
+        }
+        int index = matches.indexAt(offset + 1);
+        return (index == matches.size()) ? 0 : index;
+    }
+    public int previous(long offset) {
+        if (matches.size() == 0) {
+            return -1;
+        }
+        int index = matches.indexAt(offset) - 1;
+        return (index < 0) ? matches.size() - 1 : index;
+    }
+    /*Moves the matches along with each change, then searches the changed
+     *parts of the text again once they are all in: the characters a string
+     *could overlap, or the whole lines of an expression.*/
+    @Override
+    public void changed(List<TextChange> changes) {
+        if (query == null) {
+            return;
+        }
+        //What each change inserted, moved along by the changes after it
+        List<long[]> regions = new ArrayList<long[]>();
+        for (TextChange change : changes) {
+            long offset = change.getOffset();
+            int removed = change.getRemovedLength();
+            int inserted = change.getInsertedLength();
+            matches.edit(offset, removed, inserted);
+            if (remaining > 0) {
+                edits.add(new long[] {offset, removed, inserted});
+            }
+            for (long[] region : regions) {
+                region[0] = shift(region[0], offset, removed, inserted);
+                region[1] = shift(region[1], offset, removed, inserted);
+            }
+            regions.add(new long[] {offset, offset + inserted});
+        }
+        Collections.sort(regions, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        long from = -1;
+        long to = -1;
+        for (long[] region : regions) {
+            long regionFrom;
+            long regionTo;
+            if (query.pattern == null) {
+                regionFrom = Math.max(0, region[0] - query.text.length() + 1);
+                regionTo = Math.min(text.getLength(), region[1] + query.text.length() - 1);
+            }
+            else {
+                regionFrom = region[0];
+                while ((regionFrom > 0) && (text.charAt(regionFrom - 1) != '\r')) {
+                    regionFrom -= 1;
+                }
+                regionTo = region[1];
+                while ((regionTo < text.getLength()) && (text.charAt(regionTo) != '\r')) {
+                    regionTo += 1;
+                }
+            }
+            if (regionFrom <= to) {
+                to = Math.max(to, regionTo);
+                continue;
+            }
+            if (from >= 0) {
+                searchAgain(from, to);
+            }
+            from = regionFrom;
+            to = regionTo;
+        }
+        if (from >= 0) {
+            searchAgain(from, to);
+        }
+    }
+    private void searchAgain(long from, long to) {
+        if (query.pattern != null) {
+            matches.remove(from, to);
+        }
+        if (remaining > 0) {
+            //Only matches starting early enough to end by to are looked for again
+            edits.add(new long[] {from, (query.pattern == null) ? Math.max(from, to - query.text.length() + 1) : to});
+        }
+        MatchIndex found = new MatchIndex();
+        query.search(text.getText(from, to).toCharArray(), from, (int) (to - from), found);
+        matches.merge(found);
+    }
+    //Where an offset ends up after removedLength characters at from became insertedLength others
+    private static long shift(long offset, long from, int removedLength, int insertedLength) {
+        if (offset <= from) {
+            return offset;
+        }
+        if (offset >= from + removedLength) {
+            return offset - removedLength + insertedLength;
+        }
+        return from;
+    }
+    //Searches one chunk of a snapshot on a worker thread
+    private class ChunkSearch implements Runnable {
+        private int job;
+        private Query query;
+        private PieceTable text;
+        private int firstEdit; //The first of the edits made since the snapshot
+        private long from;
+        private long to;
+        private ChunkSearch(int job, Query query, PieceTable text, int firstEdit, long from, long to) {
+            this.job = job;
+            this.query = query;
+            //Each thread reads through a snapshot of its own
+            this.text = text.snapshot();
+            this.firstEdit = firstEdit;
+            this.from = from;
+            this.to = to;
+        }
+        @Override
+        public void run() {
+            if (job != Finder.this.job) {
+                return;
+            }
+            final MatchIndex found = search(query, text, from, to);
+            publisher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    add(job, found, firstEdit);
+                }
+            });
+        }
+    }
+    /*Returns the matches of a string in text that start in [from, to), found
+     *on the calling thread, for work with no JavaFX thread to hand them to.
+     *Only the characters a match starting there could reach are read.*/
+    public static MatchIndex find(PieceTable text, String query, long from, long to) {
+        return search(new Query(query, false), text, from, to);
+    }
+    //Searches one chunk, taking in enough past to for a match that starts before it
+    private static MatchIndex search(Query query, PieceTable text, long from, long to) {
+        MatchIndex found = new MatchIndex();
+        long start = from;
+        long end;
+        if (query.pattern == null) {
+            end = Math.min(text.length(), to + query.text.length() - 1);
+        }
+        else {
+            //Lines belong to the chunk they start in
+            if (start > 0) {
+                while ((start < to) && (text.charAt(start - 1) != '\r')) {
+                    start += 1;
+                }
+            }
+            end = to;
+            while ((end > start) && (end < text.length()) && (text.charAt(end - 1) != '\r')) {
+                end += 1;
+            }
+        }
+        char[] chars = new char[(int) (end - start)];
+        text.getChars(start, end, chars, 0);
+        query.search(chars, start, (query.pattern == null) ? (int) (to - start) : chars.length, found);
+        return found;
+    }
+    //Brings a chunk's matches up to date with the edits made since and adds them
+    private void add(int chunkJob, MatchIndex found, int firstEdit) {
+        if (chunkJob != job) {
+            return;
+        }
+        for (long[] edit : edits.subList(firstEdit, edits.size())) {
+            if (edit.length == 3) {
+                found.edit(edit[0], (int) edit[1], (int) edit[2]);
+            }
+            else {
+                //This part was searched again after it was changed
+                found.remove(edit[0], edit[1]);
+            }
+        }
+        matches.merge(found);
+        remaining -= 1;
+        if (remaining == 0) {
+            edits.clear();
+        }
+        refresh.run();
+    }
+    //What is being looked for, which the chunks of a search read on their own threads
+    private static class Query {
+        private String text;
+        private Pattern pattern; //Null unless the query is an expression
+        private int[] shifts; //How far to move along for each character, when it is a string
+        private Query(String text, boolean regex) {
+            this.text = text;
+            if (regex) {
+                pattern = Pattern.compile(text);
+            }
+            else {
+                shifts = shifts(text);
+            }
+        }
+        /*Appends the matches in chars, which holds the text from offset on, that
+         *start before limit.*/
+        private void search(char[] chars, long offset, int limit, MatchIndex found) {
+            if (pattern == null) {
+                searchString(chars, offset, limit, found);
+                return;
+            }
+            Matcher matcher = pattern.matcher(CharBuffer.wrap(chars));
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while ((lineEnd < chars.length) && (chars[lineEnd] != '\r')) {
+                    lineEnd += 1;
+                }
+                matcher.region(lineStart, lineEnd);
+                while (matcher.find()) {
+                    //Empty matches can't be seen or stepped through
+                    if (matcher.end() > matcher.start()) {
+                        found.append(offset + matcher.start(), offset + matcher.end());
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+        }
+        //Boyer-Moore-Horspool: after a mismatch, skip by how far the window's last character is from the end of the query
+        private void searchString(char[] chars, long offset, int limit, MatchIndex found) {
+            int length = text.length();
+            char last = text.charAt(length - 1);
+            int position = 0;
+            while ((position < limit) && (position + length <= chars.length)) {
+                char current = chars[position + length - 1];
+                if (current == last) {
+                    int i = length - 2;
+                    while ((i >= 0) && (chars[position + i] == text.charAt(i))) {
+                        i -= 1;
+                    }
+                    if (i < 0) {
+                        found.append(offset + position, offset + position + length);
+                    }
+                }
+                position += shifts[current & 0xff];
+            }
+        }
+        /*Characters share a slot by their low byte, each slot holding the smallest
+         *shift of the characters in it, so a shift never skips a match.*/
+        private static int[] shifts(String query) {
+            int length = query.length();
+            int[] shifts = new int[256];
+            Arrays.fill(shifts, length);
+            for (int i = 0; i < length - 1; i++) {
+                shifts[query.charAt(i) & 0xff] = length - 1 - i;
+            }
+            return shifts;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package editor;
+
+/* FixedMetrics
+ * Metrics for a made up font where every character is the same width,
+ * proportional to the size, except for spaces, which are half as wide.
+ * Layout with them is deterministic and needs no JavaFX, which is what
+ * benchmarks and other headless uses of TextList want.
+ */
+public class FixedMetrics implements FontMetrics {
+    public static final FontMetrics.Source SOURCE = new FontMetrics.Source() {
+        @Override
+        public FontMetrics get(String fontName, double size) {
+            return new FixedMetrics(size);
+        }
+    };
+    private double size;
+    private double width;
+    private int lineHeight;
+    public FixedMetrics(double size) {
+        this.size = size;
+        width = size * 0.6;
+        lineHeight = (int) Math.round(size * 1.2);
+    }
+    public int getLineHeight() {
+        return lineHeight;
+    }
+    public double getAdvance(int codePoint) {
+        return (codePoint == ' ') ? width / 2 : width;
+    }
+    //Metrics for the same size measure the same, however many times they were made
+    @Override
+    public boolean equals(Object other) {
+        return (other instanceof FixedMetrics) && (((FixedMetrics) other).size == size);
+    }
+    @Override
+    public int hashCode() {
+        return Double.hashCode(size);
+    }
+}
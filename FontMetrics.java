@@ -0,0 +1,19 @@
+package editor;
+
+/* FontMetrics
+ * The widths of characters and the height of a line in one font and size,
+ * which is all laying out text needs to know about fonts. GlyphCache
+ * measures them with JavaFX, and FixedMetrics makes them up so that the
+ * text can be laid out without a GUI. Paragraphs are wrapped on several
+ * threads at once, so implementations must be safe to share between them,
+ * and metrics that measure the same must be equal, since Layout compares
+ * them to know whether line breaks it kept still fit.
+ */
+public interface FontMetrics {
+    int getLineHeight();
+    double getAdvance(int codePoint);
+    //Finds the metrics for a font and size
+    interface Source {
+        FontMetrics get(String fontName, double size);
+    }
+}
@@ -0,0 +1,104 @@
+package editor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+/* GlyphCache
+ * Remembers how wide each character is in one font and size, along with
+ * the height of a line, so that laying out text is arithmetic instead of
+ * asking a Text for its bounds. Caches are shared between everything
+ * using the same font and size, and only the most recent few are kept.
+ * Paragraphs are wrapped on several threads at once, so a page of widths
+ * is measured all at once under a lock and only then published.
+ */
+public class GlyphCache implements FontMetrics {
+    private static final int MAXCACHES = 8;
+    private static final int PAGESIZE = 256;
+    private static final Map<String, GlyphCache> CACHES = new LinkedHashMap<String, GlyphCache>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GlyphCache> eldest) {
+            return size() > MAXCACHES;
+        }
+    };
+    public static final FontMetrics.Source SOURCE = new FontMetrics.Source() {
+        @Override
+        public FontMetrics get(String fontName, double size) {
+            return GlyphCache.get(fontName, size);
+        }
+    };
+    private Font font;
+    private AtomicReferenceArray<float[]> pages; //Widths of the Basic Multilingual Plane, a page at a time
+    private Map<Integer, Float> supplementary; //Widths of the code points above it
+    private int lineHeight;
+    private Text measure;
+    private GlyphCache(String fontName, double size) {
+        font = Font.font(fontName, size);
+        pages = new AtomicReferenceArray<float[]>((Character.MAX_VALUE + 1) / PAGESIZE);
+        supplementary = new ConcurrentHashMap<Integer, Float>();
+        measure = new Text();
+        measure.setFont(font);
+        measure.setText("a");
+        lineHeight = (int) Math.round(measure.getLayoutBounds().getHeight());
+    }
+    //Returns the shared cache for the given font and size
+    public static synchronized GlyphCache get(String fontName, double size) {
+        String key = fontName + "/" + size;
+        GlyphCache cache = CACHES.get(key);
+        if (cache == null) {
+            cache = new GlyphCache(fontName, size);
+            CACHES.put(key, cache);
+        }
+        return cache;
+    }
+    public Font getFont() {
+        return font;
+    }
+    public int getLineHeight() {
+        return lineHeight;
+    }
+    //A cache made again after being dropped from CACHES measures the same as the one before it
+    @Override
+    public boolean equals(Object other) {
+        return (other instanceof GlyphCache) && ((GlyphCache) other).font.equals(font);
+    }
+    @Override
+    public int hashCode() {
+        return font.hashCode();
+    }
+    public double getAdvance(int codePoint) {
+        if (codePoint > Character.MAX_VALUE) {
+            Float width = supplementary.get(codePoint);
+            if (width == null) {
+                width = measure(codePoint);
+                supplementary.put(codePoint, width);
+            }
+            return width;
+        }
+        float[] page = pages.get(codePoint / PAGESIZE);
+        if (page == null) {
+            page = measurePage(codePoint / PAGESIZE);
+        }
+        return page[codePoint % PAGESIZE];
+    }
+    private synchronized float[] measurePage(int index) {
+        float[] page = pages.get(index);
+        if (page == null) {
+            page = new float[PAGESIZE];
+            for (int i = 0; i < PAGESIZE; i++) {
+                page[i] = measure(index * PAGESIZE + i);
+            }
+            pages.set(index, page);
+        }
+        return page;
+    }
+    private synchronized float measure(int codePoint) {
+        if (Character.isSurrogate((char) codePoint)) {
+            return 0; //Half a pair, which is measured as a whole
+        }
+        measure.setText(new String(Character.toChars(codePoint)));
+        return (float) measure.getLayoutBounds().getWidth();
+    }
+}
@@ -0,0 +1,247 @@
+package editor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+/* Highlighter
+ * Runs a Lexer over the paragraphs of a TextList on a background thread
+ * and stores the style runs, and the state each paragraph ended in, on the
+ * paragraphs themselves. The first pass lexes the whole file from the top.
+ * After an edit, lexing starts again from the edited paragraph and stops
+ * at the first paragraph after the edit that ends in the same state as
+ * before, since nothing after that can have changed. Lexing reads a
+ * snapshot of the text, and its results are handed to the JavaFX thread in
+ * batches, which are dropped if the text changed in the meantime. All an
+ * edit does on the JavaFX thread is note which paragraphs it touched.
+ */
+public class Highlighter implements TextList.Listener {
+    private static final int FIRSTBATCH = 16; //Paragraphs in the first batch, which doubles up to MAXBATCH
+    private static final int MAXBATCH = 1024;
+    private static final int CHUNKSIZE = 1 << 16;
+    private TextList text;
+    private Lexer lexer;
+    private Executor publisher; //Runs tasks on the JavaFX thread
+    private Runnable refresh; //Told when paragraphs have new styles, on the JavaFX thread
+    private ExecutorService worker;
+    private int lexedTo; //Every paragraph before this one has been lexed at least once
+    private int editFrom = -1; //The paragraphs from editFrom to editTo changed since they were lexed
+    private int editTo;
+    private volatile int job; //Bumped to cancel the lexing of older text
+    private boolean startPending;
+    public Highlighter(TextList text, Lexer lexer, Executor publisher, Runnable refresh) {
+        this.text = text;
+        this.lexer = lexer;
+        this.publisher = publisher;
+        this.refresh = refresh;
+        worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Highlighter");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        schedule();
+    }
+    /*Returns the runs of styles between from and to, which must be in one
+     *paragraph, as pairs of where each run starts counting from from and its
+     *style, or null if the paragraph hasn't been lexed yet.*/
+    public int[] getStyles(long from, long to) {
+        int index = text.getParagraphOf(from);
+        int[] styles = text.getParagraph(index).getStyles();
+        if (styles == null) {
+            return null;
+        }
+        int start = (int) (text.getParagraphStart(index) - from); //Where the paragraph starts counting from from
+        //Skip to the run holding from, which then starts at from
+        int first = 0;
+        while ((first + 2 < styles.length) && (start + styles[first + 2] <= 0)) {
+            first += 2;
+        }
+        int last = first;
+        while ((last < styles.length) && (start + styles[last] < to - from)) {
+            last += 2;
+        }
+        int[] runs = new int[Math.max(2, last - first)];
+        runs[0] = 0;
+        runs[1] = (styles.length > 0) ? styles[first + 1] : Lexer.PLAIN;
+        for (int i = first + 2; i < last; i += 2) {
+            runs[i - first] = start + styles[i];
+            runs[i - first + 1] = styles[i + 1];
+        }
+        return runs;
+    }
+    public void shutdown() {
+        job += 1;
+        worker.shutdownNow();
+    }
+    //Notes which paragraphs need lexing again and cancels lexing that is under way
+    @Override
+    public void changed(List<TextChange> changes) {
+        for (TextChange change : changes) {
+            int index = change.getParagraph();
+            int delta = change.getInsertedNewlines() - change.getRemovedNewlines();
+            if (index >= lexedTo) {
+                continue;
+            }
+            lexedTo = Math.max(index + 1, lexedTo + delta);
+            if (editFrom < 0) {
+                editFrom = index;
+                editTo = index + change.getInsertedNewlines();
+            }
+            else {
+                if (editTo > index) {
+                    editTo = Math.max(index, editTo + delta);
+                }
+                editFrom = Math.min(editFrom, index);
+                editTo = Math.max(editTo, index + change.getInsertedNewlines());
+            }
+        }
+        job += 1;
+        schedule();
+    }
+    //Starts lexing once the edits of this event are all in
+    private void schedule() {
+        if (startPending) {
+            return;
+        }
+        startPending = true;
+        publisher.execute(new Runnable() {
+            @Override
+            public void run() {
+                startPending = false;
+                start();
+            }
+        });
+    }
+    //Starts lexing from the first paragraph that needs it, if there is one
+    private void start() {
+        int index = (editFrom >= 0) ? editFrom : lexedTo;
+        if (index >= text.getParagraphCount()) {
+            return;
+        }
+        int state = (index == 0) ? Lexer.INITIAL : Math.max(Lexer.INITIAL, text.getParagraph(index - 1).getLexState());
+        worker.execute(new LexTask(job, text.snapshot(), index, text.getParagraphStart(index), state));
+    }
+    //Lexes paragraphs from one onwards until the end of the text or until it is cancelled
+    private class LexTask implements Runnable {
+        private int job;
+        private PieceTable text;
+        private int index;
+        private long offset;
+        private int state;
+        private LexTask(int job, PieceTable text, int index, long offset, int state) {
+            this.job = job;
+            this.text = text;
+            this.index = index;
+            this.offset = offset;
+            this.state = state;
+        }
+        @Override
+        public void run() {
+            int batchSize = FIRSTBATCH;
+            Batch batch = new Batch(job, index, batchSize);
+            Lexer.Runs runs = new Lexer.Runs();
+            char[] chunk = new char[CHUNKSIZE];
+            char[] line = new char[256];
+            int lineLength = 0;
+            long length = text.length();
+            for (long chunkStart = offset; chunkStart <= length; chunkStart += CHUNKSIZE) {
+                if (job != Highlighter.this.job) {
+                    return;
+                }
+                long chunkEnd = Math.min(length, chunkStart + CHUNKSIZE);
+                text.getChars(chunkStart, chunkEnd, chunk, 0);
+                for (int i = 0; i <= chunkEnd - chunkStart; i++) {
+                    boolean atEnd = (chunkStart + i == length);
+                    if (!atEnd && (i == chunkEnd - chunkStart)) {
+                        break;
+                    }
+                    if (!atEnd && (chunk[i] != '\r')) {
+                        if (lineLength == line.length) {
+                            line = Arrays.copyOf(line, lineLength * 2);
+                        }
+                        line[lineLength] = chunk[i];
+                        lineLength += 1;
+                        continue;
+                    }
+                    //A paragraph ends at each newline, and the last one at the end of the text
+                    runs.clear();
+                    state = lexer.lex(line, lineLength, state, runs);
+                    batch.add(state, runs.toArray());
+                    lineLength = 0;
+                    if (batch.isFull() || atEnd) {
+                        publish(batch);
+                        if (atEnd || (job != Highlighter.this.job)) {
+                            return;
+                        }
+                        batchSize = Math.min(MAXBATCH, batchSize * 2);
+                        batch = new Batch(job, batch.first + batch.size, batchSize);
+                    }
+                }
+            }
+        }
+        private void publish(final Batch batch) {
+            publisher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    apply(batch);
+                }
+            });
+        }
+    }
+    //The styles of a run of consecutive paragraphs
+    private static class Batch {
+        private int job;
+        private int first;
+        private int size;
+        private int[] states;
+        private int[][] styles;
+        private Batch(int job, int first, int capacity) {
+            this.job = job;
+            this.first = first;
+            states = new int[capacity];
+            styles = new int[capacity][];
+        }
+        private void add(int state, int[] runs) {
+            states[size] = state;
+            styles[size] = runs;
+            size += 1;
+        }
+        private boolean isFull() {
+            return size == states.length;
+        }
+    }
+    /*Stores a batch's styles on its paragraphs, unless the text changed since
+     *it was lexed, and stops lexing once it has caught up with an edit.*/
+    private void apply(Batch batch) {
+        if (batch.job != job) {
+            return;
+        }
+        for (int i = 0; i < batch.size; i++) {
+            int index = batch.first + i;
+            Paragraph paragraph = text.getParagraph(index);
+            int oldState = paragraph.getLexState();
+            paragraph.setStyles(batch.states[i], batch.styles[i]);
+            if (index >= lexedTo) {
+                lexedTo = index + 1;
+                editFrom = -1;
+            }
+            else if (editFrom >= 0) {
+                if ((index >= editTo) && (batch.states[i] == oldState)) {
+                    //The paragraphs after this one were lexed from the same state before
+                    editFrom = -1;
+                    job += 1;
+                    start();
+                    break;
+                }
+                editFrom = index + 1;
+            }
+        }
+        refresh.run();
+    }
+}
@@ -0,0 +1,75 @@
+package editor;
+
+import java.util.Arrays;
+/* LatencyHistogram
+ * Counts durations in buckets that are evenly spaced within each power of
+ * two, like an HDR histogram, so any percentile is within about 3% of the
+ * true value while recording stays a couple of shifts and an increment.
+ */
+public class LatencyHistogram {
+    private static final int SUBBITS = 5;
+    private static final int SUBBUCKETS = 1 << SUBBITS;
+    private long[] counts;
+    private long total;
+    private long sum;
+    private long max;
+    public LatencyHistogram() {
+        counts = new long[(Long.SIZE - SUBBITS + 1) * SUBBUCKETS];
+    }
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[indexOf(value)] += 1;
+        total += 1;
+        sum += value;
+        max = Math.max(max, value);
+    }
+    public long getCount() {
+        return total;
+    }
+    public long getMax() {
+        return max;
+    }
+    public double getMean() {
+        return (total == 0) ? 0 : (double) sum / total;
+    }
+    //Returns the duration that the given fraction of recorded durations are at most
+    public long getPercentile(double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestIn(i));
+            }
+        }
+        return max;
+    }
+    public void clear() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        sum = 0;
+        max = 0;
+    }
+    /*Values below SUBBUCKETS get a bucket each. Above that, the top SUBBITS bits
+     *after the leading one pick the bucket within the value's power of two.*/
+    private static int indexOf(long value) {
+        if (value < SUBBUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUBBITS)) & (SUBBUCKETS - 1);
+        return (exponent - SUBBITS + 1) * SUBBUCKETS + sub;
+    }
+    private static long highestIn(int index) {
+        if (index < SUBBUCKETS) {
+            return index;
+        }
+        int exponent = index / SUBBUCKETS + SUBBITS - 1;
+        long sub = index % SUBBUCKETS;
+        long lowest = (1L << exponent) | (sub << (exponent - SUBBITS));
+        return lowest + (1L << (exponent - SUBBITS)) - 1;
+    }
+}
@@ -0,0 +1,105 @@
+package editor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+/* LatencyMonitor
+ * Times each stage of handling a key event in debug mode: the handler as a
+ * whole, changing the text, laying it out and moving the cursor and scroll
+ * bar (once per pulse, for however many events came in), and the time
+ * until the next pulse has been laid out for drawing. Each stage has its
+ * own LatencyHistogram.
+ */
+public class LatencyMonitor {
+    public static final int HANDLE = 0;
+    public static final int EDIT = 1;
+    public static final int LAYOUT = 2;
+    public static final int CURSOR = 3;
+    public static final int PULSE = 4;
+    private static final String[] NAMES = {"handle", "edit", "layout", "cursor", "pulse"};
+    private LatencyHistogram[] histograms;
+    private long[] current; //Stage times of the event being handled, -1 for stages it skipped
+    private long eventStart;
+    private long lastMark;
+    private long pulsePending = -1; //When the event the next pulse will show started
+    public LatencyMonitor() {
+        histograms = new LatencyHistogram[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        current = new long[NAMES.length];
+    }
+    //Called when an event arrives
+    public void begin() {
+        eventStart = System.nanoTime();
+        lastMark = eventStart;
+        Arrays.fill(current, -1);
+    }
+    //Records that the given stage finished, having started when the last one did
+    public void mark(int stage) {
+        long now = System.nanoTime();
+        current[stage] = now - lastMark;
+        lastMark = now;
+    }
+    //Records a stage that doesn't happen inside an event handler
+    public void record(int stage, long nanos) {
+        histograms[stage].record(nanos);
+    }
+    //Called when the handler returns. Events that changed nothing aren't counted.
+    public void end(boolean changed) {
+        if (!changed) {
+            return;
+        }
+        current[HANDLE] = System.nanoTime() - eventStart;
+        for (int i = 0; i < PULSE; i++) {
+            if (current[i] >= 0) {
+                histograms[i].record(current[i]);
+            }
+        }
+        if (pulsePending < 0) {
+            pulsePending = eventStart;
+        }
+    }
+    //Called after each pulse is laid out, which finishes the oldest event it shows
+    public void pulse() {
+        if (pulsePending >= 0) {
+            histograms[PULSE].record(System.nanoTime() - pulsePending);
+            pulsePending = -1;
+        }
+    }
+    public LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+    //Returns a line per stage with its median, 99th percentile and maximum in milliseconds
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < NAMES.length; i++) {
+            LatencyHistogram histogram = histograms[i];
+            builder.append(String.format("%-7s p50 %7.3f  p99 %7.3f  max %7.3f ms%n", NAMES[i],
+                millis(histogram.getPercentile(0.5)), millis(histogram.getPercentile(0.99)),
+                millis(histogram.getMax())));
+        }
+        return builder.toString();
+    }
+    //Writes every stage's count and percentiles, in microseconds, as CSV
+    public void dump(Path path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+            writer.println("stage,count,mean_us,p50_us,p90_us,p99_us,p999_us,max_us");
+            for (int i = 0; i < NAMES.length; i++) {
+                LatencyHistogram histogram = histograms[i];
+                writer.printf("%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f%n", NAMES[i], histogram.getCount(),
+                    histogram.getMean() / 1000, micros(histogram.getPercentile(0.5)),
+                    micros(histogram.getPercentile(0.9)), micros(histogram.getPercentile(0.99)),
+                    micros(histogram.getPercentile(0.999)), micros(histogram.getMax()));
+            }
+        }
+    }
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+    private static double micros(long nanos) {
+        return nanos / 1e3;
+    }
+}
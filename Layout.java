@@ -0,0 +1,615 @@
+package editor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+/* Layout
+ * Splits the text of a PieceTable into paragraphs and wraps them into
+ * lines that fit the window. Paragraphs are only wrapped when a line in
+ * them is looked at, so a new file or width costs nothing until it is
+ * drawn, and edits only mark the paragraphs they touch, so the cost of a
+ * keystroke depends on the length of the paragraph being edited rather
+ * than the file. Paragraphs that have not been wrapped count as one line
+ * until wrapPending gets to them. The paragraphs are kept in a LineIndex,
+ * so finding a line or an offset takes logarithmic time.
+ *
+ * Files too large to split up front start out as unscanned blocks of up
+ * to a gigabyte, each ending at a newline if there is one soon after.
+ * wrapPending counts the newlines in them a chunk at a time, leaving
+ * blocks of paragraphs that are only split apart and wrapped once a line
+ * in them is looked at, so memory grows with what has been viewed. A line
+ * too long for that is shown broken where its block ends.
+ *
+ * The line breaks of the last few widths and fonts are kept on the
+ * paragraphs, each width and font in a slot of its own, so going back to
+ * one of them only has to hand each paragraph its old breaks again.
+ */
+public class Layout {
+    private static final int SPARSELIMIT = 1 << 24; //Larger buffers are split as they are viewed
+    private static final int BLOCKSIZE = 1 << 16; //Roughly how many characters go in a block
+    private static final int UNSCANNEDSIZE = 1 << 30; //Roughly the most characters in an unscanned block
+    private static final int NEWLINESEARCH = 1 << 20; //How far past that to look for a newline to end it at
+    private static final int SAVEDWRAPS = 4; //Widths and fonts whose line breaks are kept
+    private PieceTable buffer;
+    private int margin;
+    private int lineWidth;
+    private FontMetrics metrics;
+    private LineIndex paragraphs;
+    private int pendingFrom; //No paragraph before this one is waiting to be wrapped or counted
+    private int generation; //Goes up with every new width or font, to recognize late Batches
+    private boolean sparse;
+    //The width and font whose breaks each slot keeps, when it was last used and which use of it this is
+    private int[] savedWidths = new int[SAVEDWRAPS];
+    private FontMetrics[] savedMetrics = new FontMetrics[SAVEDWRAPS];
+    private long[] savedUsed = new long[SAVEDWRAPS];
+    private int[] savedStamps = new int[SAVEDWRAPS];
+    private long uses;
+    private int stamps;
+    /*Paragraphs to be wrapped on another thread, along with a snapshot of
+     *their text and everything else wrapping needs.*/
+    public static class Batch {
+        private Layout layout;
+        private int generation;
+        private PieceTable text;
+        private FontMetrics metrics;
+        private int margin;
+        private int lineWidth;
+        private Paragraph[] paragraphs;
+        private long[] starts;
+        private int[] lengths;
+        private int[] editCounts;
+        private int[][] breaks;
+        private Batch(Layout layout, PieceTable text, int size, int lineWidth, FontMetrics metrics) {
+            this.layout = layout;
+            this.text = text;
+            generation = layout.generation;
+            this.metrics = metrics;
+            margin = layout.margin;
+            this.lineWidth = lineWidth;
+            paragraphs = new Paragraph[size];
+            starts = new long[size];
+            lengths = new int[size];
+            editCounts = new int[size];
+        }
+        public int size() {
+            return paragraphs.length;
+        }
+        //Finds the line breaks of every paragraph in the batch, on any thread
+        public void wrap() {
+            PieceTable reader = text.snapshot();
+            int[][] result = new int[paragraphs.length][];
+            for (int i = 0; i < paragraphs.length; i++) {
+                result[i] = findBreaks(reader, metrics, margin, lineWidth, starts[i], lengths[i], null);
+            }
+            breaks = result;
+        }
+    }
+    public Layout(PieceTable buffer, int margin) {
+        this.buffer = buffer;
+        this.margin = margin;
+        rebuild();
+    }
+    //Throws away all paragraphs and splits the whole buffer again
+    public void rebuild() {
+        pendingFrom = 0;
+        //A file still being counted may turn out to be large, and grows in blocks
+        sparse = (buffer.length() > SPARSELIMIT) || !buffer.isComplete();
+        if (sparse) {
+            paragraphs = new LineIndex(unscannedBlocks(0, buffer.length()));
+            count(paragraphs.get(0));
+            return;
+        }
+        paragraphs = new LineIndex(split(0, buffer.length(), true));
+    }
+    /*Takes in characters the buffer grew by at its end, which start out in
+     *unscanned blocks along with the last paragraph.*/
+    public void grow() {
+        int index = paragraphs.size() - 1;
+        Paragraph last = paragraphs.get(index);
+        paragraphs.replace(index, index + 1, unscannedBlocks(paragraphs.startOf(last), buffer.length()));
+        pendingFrom = Math.min(pendingFrom, index);
+    }
+    //Splits the buffer between from and to into unscanned blocks, at least one
+    private List<Paragraph> unscannedBlocks(long from, long to) {
+        List<Paragraph> result = new ArrayList<Paragraph>();
+        long start = from;
+        while ((start < to) || result.isEmpty()) {
+            long end = Math.min(to, start + UNSCANNEDSIZE);
+            long limit = Math.min(to, end + NEWLINESEARCH);
+            while ((end < limit) && (buffer.charAt(end - 1) != '\r')) {
+                end += 1;
+            }
+            result.add(Paragraph.unscanned((int) (end - start)));
+            start = end;
+        }
+        return result;
+    }
+    /*Updates the paragraphs after the buffer had removed characters at offset
+     *replaced by inserted. The buffer must already contain the new text.*/
+    public void edit(long offset, int removedLength, CharSequence inserted) {
+        Paragraph first = paragraphs.paragraphAt(offset);
+        long start = paragraphs.startOf(first);
+        Paragraph last = first;
+        long lastStart = start;
+        Paragraph next = paragraphs.next(last);
+        while ((next != null) && (lastStart + last.getLength() <= offset + removedLength)) {
+            lastStart += last.getLength();
+            last = next;
+            next = paragraphs.next(last);
+        }
+        //Newlines in unscanned text don't need to be counted until it is scanned
+        if (!first.isScanned() || ((first == last) && !first.isBlock() && (indexOfNewline(inserted) < 0))) {
+            first.edit((int) (offset - start), removedLength, inserted.length());
+            paragraphs.update(first);
+            pendingFrom = Math.min(pendingFrom, paragraphs.indexOf(first));
+            return;
+        }
+        //Newlines were added or removed, so the paragraphs involved are split again
+        long end = lastStart + last.getLength() - removedLength + inserted.length();
+        int firstIndex = paragraphs.indexOf(first);
+        int lastIndex = paragraphs.indexOf(last);
+        List<Paragraph> replacement;
+        if (last.isScanned()) {
+            replacement = split(start, end, next == null);
+        }
+        else {
+            //Split up to the last newline the edit left and leave the rest unscanned
+            long splitEnd = offset + inserted.length();
+            while ((splitEnd > start) && (buffer.charAt(splitEnd - 1) != '\r')) {
+                splitEnd -= 1;
+            }
+            replacement = split(start, splitEnd, false);
+            if ((end > splitEnd) || (next == null)) {
+                replacement.add(Paragraph.unscanned((int) (end - splitEnd)));
+            }
+        }
+        paragraphs.replace(firstIndex, lastIndex + 1, replacement);
+        pendingFrom = Math.min(pendingFrom, firstIndex);
+    }
+    /*Sets the width and font to wrap to. If either changed, the current line
+     *breaks are kept in a slot and replaced by the ones kept for the new width
+     *and font, or forgotten if there are none.*/
+    public void reflow(int windowWidth, FontMetrics newMetrics) {
+        if ((windowWidth != lineWidth) || !newMetrics.equals(metrics)) {
+            int newSlot = findSlot(windowWidth, newMetrics);
+            int oldSlot = (metrics == null) ? -1 : claimSlot(lineWidth, metrics, newSlot);
+            lineWidth = windowWidth;
+            metrics = newMetrics;
+            generation += 1;
+            for (Paragraph paragraph = paragraphs.get(0); paragraph != null; paragraph = paragraphs.next(paragraph)) {
+                if (oldSlot >= 0) {
+                    paragraph.saveBreaks(oldSlot, savedStamps[oldSlot], SAVEDWRAPS);
+                }
+                if (newSlot >= 0) {
+                    paragraph.restoreBreaks(newSlot, savedStamps[newSlot]);
+                }
+                else {
+                    paragraph.invalidate();
+                }
+            }
+            paragraphs.updateAll();
+            pendingFrom = 0;
+        }
+    }
+    //Whether reflowing to this width and font would put back breaks kept for it
+    public boolean hasSaved(int windowWidth, FontMetrics newMetrics) {
+        return ((windowWidth == lineWidth) && newMetrics.equals(metrics)) || (findSlot(windowWidth, newMetrics) >= 0);
+    }
+    private int findSlot(int windowWidth, FontMetrics newMetrics) {
+        for (int slot = 0; slot < SAVEDWRAPS; slot++) {
+            if (newMetrics.equals(savedMetrics[slot]) && (savedWidths[slot] == windowWidth)) {
+                uses += 1;
+                savedUsed[slot] = uses;
+                return slot;
+            }
+        }
+        return -1;
+    }
+    //Returns the slot for a width and font, taking over the least recently used one other than keep
+    private int claimSlot(int windowWidth, FontMetrics newMetrics, int keep) {
+        int slot = findSlot(windowWidth, newMetrics);
+        if (slot >= 0) {
+            return slot;
+        }
+        for (int i = 0; i < SAVEDWRAPS; i++) {
+            if ((i != keep) && ((slot < 0) || (savedUsed[i] < savedUsed[slot]))) {
+                slot = i;
+            }
+        }
+        savedWidths[slot] = windowWidth;
+        savedMetrics[slot] = newMetrics;
+        stamps += 1;
+        savedStamps[slot] = stamps;
+        uses += 1;
+        savedUsed[slot] = uses;
+        return slot;
+    }
+    /*Wraps paragraphs that have not been looked at yet, and counts the newlines
+     *in text that hasn't been scanned, for up to the given number of nanoseconds.
+     *Returns whether every paragraph is now wrapped or in a counted block.*/
+    public boolean wrapPending(long nanos) {
+        long started = System.nanoTime();
+        Paragraph paragraph = (pendingFrom < paragraphs.size()) ? paragraphs.get(pendingFrom) : null;
+        while (paragraph != null) {
+            if (!paragraph.isScanned()) {
+                paragraph = count(paragraph);
+            }
+            if (!paragraph.isBlock()) {
+                ensureWrapped(paragraph);
+            }
+            paragraph = paragraphs.next(paragraph);
+            pendingFrom += 1;
+            if ((((pendingFrom % 64) == 0) || (paragraph != null && paragraph.isBlock()))
+                && (System.nanoTime() - started > nanos)) {
+                break;
+            }
+        }
+        return pendingFrom >= paragraphs.size();
+    }
+    /*Gathers the paragraphs that still need wrapping into Batches of up to
+     *batchSize, with the batch holding firstLine first and the rest after it
+     *in order. Blocks are left to be split when they are looked at.*/
+    public List<Batch> getPendingBatches(int firstLine, int batchSize) {
+        PieceTable text = buffer.snapshot();
+        List<Paragraph> pending = new ArrayList<Paragraph>();
+        List<Long> starts = new ArrayList<Long>();
+        long viewport = paragraphs.startOf(paragraphs.paragraphOfLine(firstLine));
+        int first = -1; //The index in pending of the first paragraph at or after the viewport
+        long start = 0;
+        for (Paragraph paragraph = paragraphs.get(0); paragraph != null; paragraph = paragraphs.next(paragraph)) {
+            if (!paragraph.isBlock() && (paragraph.getBreaks() == null)) {
+                if ((first < 0) && (start >= viewport)) {
+                    first = pending.size();
+                }
+                pending.add(paragraph);
+                starts.add(start);
+            }
+            start += paragraph.getLength();
+        }
+        List<Batch> batches = new ArrayList<Batch>();
+        int from = (first < 0) ? pending.size() : first;
+        addBatches(batches, text, pending, starts, from, pending.size(), batchSize);
+        addBatches(batches, text, pending, starts, 0, from, batchSize);
+        return batches;
+    }
+    private void addBatches(List<Batch> batches, PieceTable text, List<Paragraph> pending,
+        List<Long> starts, int from, int to, int batchSize) {
+        for (int batchStart = from; batchStart < to; batchStart += batchSize) {
+            Batch batch = new Batch(this, text, Math.min(batchSize, to - batchStart), lineWidth, metrics);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.paragraphs[i] = pending.get(batchStart + i);
+                batch.starts[i] = starts.get(batchStart + i);
+                batch.lengths[i] = batch.paragraphs[i].getLength();
+                batch.editCounts[i] = batch.paragraphs[i].getEditCount();
+            }
+            batches.add(batch);
+        }
+    }
+    /*Gathers every paragraph into Batches of up to batchSize, to be wrapped at
+     *another width and font while the current breaks stay in use, and then
+     *given to applyAll. Blocks are left to be split when they are looked at.*/
+    public List<Batch> getBatchesFor(int windowWidth, FontMetrics newMetrics, int batchSize) {
+        PieceTable text = buffer.snapshot();
+        List<Batch> batches = new ArrayList<Batch>();
+        Paragraph paragraph = paragraphs.get(0);
+        long start = 0;
+        while (paragraph != null) {
+            List<Paragraph> batchParagraphs = new ArrayList<Paragraph>();
+            List<Long> starts = new ArrayList<Long>();
+            while ((paragraph != null) && (batchParagraphs.size() < batchSize)) {
+                if (!paragraph.isBlock()) {
+                    batchParagraphs.add(paragraph);
+                    starts.add(start);
+                }
+                start += paragraph.getLength();
+                paragraph = paragraphs.next(paragraph);
+            }
+            Batch batch = new Batch(this, text, batchParagraphs.size(), windowWidth, newMetrics);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.paragraphs[i] = batchParagraphs.get(i);
+                batch.starts[i] = starts.get(i);
+                batch.lengths[i] = batch.paragraphs[i].getLength();
+                batch.editCounts[i] = batch.paragraphs[i].getEditCount();
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+    /*Gives the paragraphs of Batches from getBatchesFor their line breaks, once
+     *the layout has been reflowed to the width and font they were wrapped at.
+     *Paragraphs edited since are left to be wrapped again.*/
+    public void applyAll(List<Batch> batches) {
+        for (Batch batch : batches) {
+            if ((batch.layout != this) || (batch.lineWidth != lineWidth) || !batch.metrics.equals(metrics)
+                || (batch.breaks == null)) {
+                continue;
+            }
+            for (int i = 0; i < batch.paragraphs.length; i++) {
+                Paragraph paragraph = batch.paragraphs[i];
+                if ((paragraph.getBreaks() == null) && (paragraph.getEditCount() == batch.editCounts[i])) {
+                    paragraph.setBreaks(batch.breaks[i]);
+                }
+            }
+        }
+        paragraphs.updateAll();
+    }
+    /*Gives the paragraphs of a wrapped Batch their line breaks, skipping any
+     *that have been edited or wrapped some other way since it was made.*/
+    public void apply(Batch batch) {
+        if ((batch.layout != this) || (batch.generation != generation) || (batch.breaks == null)) {
+            return;
+        }
+        for (int i = 0; i < batch.paragraphs.length; i++) {
+            Paragraph paragraph = batch.paragraphs[i];
+            if ((paragraph.getBreaks() == null) && (paragraph.getDirtyFrom() < 0)
+                && (paragraph.getLength() == batch.lengths[i])) {
+                paragraph.setBreaks(batch.breaks[i]);
+                paragraphs.update(paragraph);
+            }
+        }
+    }
+    public int getLineCount() {
+        return paragraphs.getLineCount();
+    }
+    public int getParagraphCount() {
+        return paragraphs.size();
+    }
+    public Paragraph getParagraph(int index) {
+        return paragraphs.get(index);
+    }
+    //Returns the index of the paragraph holding offset, blocks counting as one paragraph
+    public int getParagraphOf(long offset) {
+        return paragraphs.indexOf(paragraphs.paragraphAt(offset));
+    }
+    //Whether the buffer was too large to split into paragraphs when it was loaded
+    public boolean isSparse() {
+        return sparse;
+    }
+    /*Returns the offset a paragraph, or line of the file, starts at. Blocks that
+     *haven't been split yet count as one paragraph.*/
+    public long getParagraphStart(int index) {
+        return paragraphs.startOf(paragraphs.get(index));
+    }
+    /*Returns the offset a line of the file starts at, counting lines by their
+     *newlines rather than as they are wrapped on the screen, or -1 if there are
+     *fewer lines. Blocks on the way are counted, and the one holding the line
+     *is split, so this works before the layout is done.*/
+    public long getFileLineStart(int line) {
+        if (line == 0) {
+            return 0;
+        }
+        Paragraph paragraph = paragraphs.paragraphOfNewline(line - 1);
+        while ((paragraph != null) && paragraph.isBlock()) {
+            expand(paragraph);
+            paragraph = paragraphs.paragraphOfNewline(line - 1);
+        }
+        if (paragraph == null) {
+            return -1;
+        }
+        return paragraphs.startOf(paragraph) + paragraph.getLength();
+    }
+    /*The lines of the file counted so far. That is all of them once the layout
+     *is done or getFileLineStart has returned -1.*/
+    public int getFileLineCount() {
+        return paragraphs.getNewlineCount() + 1;
+    }
+    //Returns the line the given offset is displayed on
+    public int lineOf(long offset) {
+        Paragraph paragraph = paragraphAt(offset);
+        return paragraphs.firstLineOf(paragraph) + paragraph.lineOf((int) (offset - paragraphs.startOf(paragraph)));
+    }
+    //Returns the offset the given line starts at
+    public long getLineStart(int line) {
+        Paragraph paragraph = paragraphOfLine(line);
+        if (line >= getLineCount()) {
+            //Rewrapping the paragraph left fewer lines than the caller counted on
+            return buffer.length();
+        }
+        int firstLine = paragraphs.firstLineOf(paragraph);
+        return paragraphs.startOf(paragraph) + paragraph.getLineStart(line - firstLine);
+    }
+    /*Returns the last offset the cursor can take on a line: offsets at a line
+     *break are displayed at the start of the next line.*/
+    public long getLineEnd(int line) {
+        paragraphOfLine(line);
+        if (line + 1 >= getLineCount()) {
+            return buffer.length();
+        }
+        return getLineStart(line + 1) - 1;
+    }
+    /*The width the character at offset adds to a line that has reached currentX.
+     *Spaces that run past the edge of the window hang there without taking up
+     *room, and a surrogate pair is measured as a whole on its first half.*/
+    public double advance(long offset, double currentX) {
+        return advance(buffer, metrics, lineWidth, offset, currentX);
+    }
+    private static double advance(PieceTable text, FontMetrics metrics, int lineWidth, long offset, double currentX) {
+        char character = text.charAt(offset);
+        if (Character.isHighSurrogate(character) && (offset + 1 < text.length())) {
+            return metrics.getAdvance(Character.toCodePoint(character, text.charAt(offset + 1)));
+        }
+        else if (Character.isLowSurrogate(character) && (offset > 0)
+            && Character.isHighSurrogate(text.charAt(offset - 1))) {
+            return 0;
+        }
+        double width = metrics.getAdvance(character);
+        if ((character == ' ') && (currentX + width > lineWidth)) {
+            return 0;
+        }
+        return width;
+    }
+    //Returns the wrapped paragraph containing offset, splitting it out of a block first
+    private Paragraph paragraphAt(long offset) {
+        Paragraph paragraph = paragraphs.paragraphAt(offset);
+        while (paragraph.isBlock()) {
+            expand(paragraph);
+            paragraph = paragraphs.paragraphAt(offset);
+        }
+        ensureWrapped(paragraph);
+        return paragraph;
+    }
+    //Wrapping can change which paragraph a line is in, so look again until it doesn't
+    private Paragraph paragraphOfLine(int line) {
+        Paragraph paragraph = paragraphs.paragraphOfLine(line);
+        while (paragraph.isBlock() || !paragraph.isWrapped()) {
+            if (paragraph.isBlock()) {
+                expand(paragraph);
+            }
+            else {
+                ensureWrapped(paragraph);
+            }
+            paragraph = paragraphs.paragraphOfLine(line);
+        }
+        return paragraph;
+    }
+    /*Splits a block into its paragraphs. An unscanned block has a chunk counted
+     *off the front instead, which is split when the caller looks again.*/
+    private void expand(Paragraph block) {
+        if (!block.isScanned()) {
+            count(block);
+            return;
+        }
+        int index = paragraphs.indexOf(block);
+        long start = paragraphs.startOf(block);
+        boolean atEnd = (paragraphs.next(block) == null);
+        paragraphs.replace(index, index + 1, split(start, start + block.getLength(), atEnd));
+        pendingFrom = Math.min(pendingFrom, index);
+    }
+    /*Counts the newlines in a chunk at the front of an unscanned block, which is
+     *replaced by a block of that many paragraphs and the unscanned rest. Returns
+     *the new block.*/
+    private Paragraph count(Paragraph unscanned) {
+        int index = paragraphs.indexOf(unscanned);
+        long start = paragraphs.startOf(unscanned);
+        long end = start + unscanned.getLength();
+        boolean atEnd = (paragraphs.next(unscanned) == null);
+        //End the chunk after a newline, looking back from BLOCKSIZE and then ahead
+        long chunkEnd = end;
+        if (end - start > BLOCKSIZE) {
+            chunkEnd = start + BLOCKSIZE;
+            while ((chunkEnd > start) && (buffer.charAt(chunkEnd - 1) != '\r')) {
+                chunkEnd -= 1;
+            }
+            if (chunkEnd == start) {
+                chunkEnd = start + BLOCKSIZE;
+                while ((chunkEnd < end) && (buffer.charAt(chunkEnd - 1) != '\r')) {
+                    chunkEnd += 1;
+                }
+            }
+        }
+        int newlines = 0;
+        for (long ptr = start; ptr < chunkEnd; ptr++) {
+            if (buffer.charAt(ptr) == '\r') {
+                newlines += 1;
+            }
+        }
+        List<Paragraph> replacement = new ArrayList<Paragraph>();
+        boolean last = atEnd && (chunkEnd == end);
+        //A line too long to end an unscanned block at its newline is split where the block ends
+        boolean cut = (chunkEnd > start) && (buffer.charAt(chunkEnd - 1) != '\r');
+        replacement.add(Paragraph.block((int) (chunkEnd - start), (last || cut) ? newlines + 1 : newlines, newlines));
+        if (chunkEnd < end) {
+            replacement.add(Paragraph.unscanned((int) (end - chunkEnd)));
+        }
+        paragraphs.replace(index, index + 1, replacement);
+        return replacement.get(0);
+    }
+    //Wraps a paragraph that is about to be looked at
+    private void ensureWrapped(Paragraph paragraph) {
+        if (!paragraph.isWrapped()) {
+            wrap(paragraph, paragraphs.startOf(paragraph));
+            paragraphs.update(paragraph);
+        }
+    }
+    /*Splits the buffer between from and to into paragraphs. The last paragraph
+     *of the file has no newline and may be empty, and neither does one cut off
+     *at the end of an unscanned block.*/
+    private List<Paragraph> split(long from, long to, boolean atEnd) {
+        List<Paragraph> result = new ArrayList<Paragraph>();
+        long paragraphStart = from;
+        for (long ptr = from; ptr < to; ptr++) {
+            if (buffer.charAt(ptr) == '\r') {
+                result.add(new Paragraph((int) (ptr + 1 - paragraphStart), true));
+                paragraphStart = ptr + 1;
+            }
+        }
+        if (atEnd || (paragraphStart < to)) {
+            result.add(new Paragraph((int) (to - paragraphStart), false));
+        }
+        return result;
+    }
+    private static int indexOfNewline(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+    private void wrap(Paragraph paragraph, long start) {
+        paragraph.setBreaks(findBreaks(buffer, metrics, margin, lineWidth, start, paragraph.getLength(), paragraph));
+    }
+    /*Finds the line breaks of a paragraph of text that starts at the given
+     *offset. If paragraph is given and was wrapped before, wrapping restarts a line or
+     *two above its edit and stops once a break lands on one of its old breaks
+     *past the edited region. This only reads its arguments, so it can run on
+     *any thread that has a PieceTable of its own.*/
+    static int[] findBreaks(PieceTable text, FontMetrics metrics, int margin, int lineWidth,
+        long start, int length, Paragraph paragraph) {
+        long end = start + length;
+        if ((end > start) && (text.charAt(end - 1) == '\r')) {
+            end -= 1;
+        }
+        int[] oldBreaks = (paragraph == null) ? null : paragraph.getBreaks();
+        int[] breaks = new int[4];
+        int count = 0;
+        int lineStart = 0;
+        boolean resync = (oldBreaks != null) && (paragraph.getDirtyFrom() >= 0);
+        if (resync) {
+            /*A line's break can depend on characters up to the start of the line
+             *after next, so keep only the lines that end before that point.*/
+            int before = (paragraph.getDirtyFrom() == 0) ? 0 : paragraph.lineOf(paragraph.getDirtyFrom() - 1);
+            count = Math.max(0, before - 1);
+            breaks = Arrays.copyOf(oldBreaks, Math.max(4, oldBreaks.length + 1));
+            lineStart = (count == 0) ? 0 : oldBreaks[count - 1];
+        }
+        double currentX = margin;
+        long lastSpace = -1; //Just past the last space on the current line
+        long ptr = start + lineStart;
+        while (ptr < end) {
+            char current = text.charAt(ptr);
+            double width = advance(text, metrics, lineWidth, ptr, currentX);
+            if (current == ' ') {
+                lastSpace = ptr + 1;
+            }
+            else if ((currentX + width > lineWidth) && (ptr > start + lineStart)) {
+                //Wrap after the last space if there is one, otherwise mid-word
+                long nextLine = (lastSpace > start + lineStart) ? lastSpace : ptr;
+                lineStart = (int) (nextLine - start);
+                if (resync && (lineStart >= paragraph.getDirtyTo())) {
+                    int old = Arrays.binarySearch(oldBreaks, lineStart - paragraph.getDelta());
+                    if (old >= 0) {
+                        int remaining = oldBreaks.length - old;
+                        breaks = Arrays.copyOf(breaks, count + remaining);
+                        for (int i = 0; i < remaining; i++) {
+                            breaks[count + i] = oldBreaks[old + i] + paragraph.getDelta();
+                        }
+                        return breaks;
+                    }
+                }
+                if (count == breaks.length) {
+                    breaks = Arrays.copyOf(breaks, count * 2);
+                }
+                breaks[count] = lineStart;
+                count += 1;
+                currentX = margin;
+                lastSpace = -1;
+                ptr = nextLine;
+                continue;
+            }
+            currentX += width;
+            ptr += 1;
+        }
+        return Arrays.copyOf(breaks, count);
+    }
+}
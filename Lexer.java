@@ -0,0 +1,51 @@
+package editor;
+
+import java.util.Arrays;
+/* Lexer
+ * Splits the lines of a file into runs of characters drawn in the same
+ * style. A line is lexed knowing only the state the line before it ended
+ * in, such as being inside a comment, and returns the state it ends in
+ * itself, so after an edit lines only need lexing again until one ends in
+ * the same state as it did before.
+ */
+public interface Lexer {
+    //Styles, which index Renderer.STYLECOLORS
+    int PLAIN = 0;
+    int KEYWORD = 1;
+    int STRING = 2;
+    int COMMENT = 3;
+    int NUMBER = 4;
+    //The state before the first line
+    int INITIAL = 0;
+    /*Adds the runs of line[0, length), which has no newline, to runs and
+     *returns the state at the end of the line, which must not be negative.*/
+    int lex(char[] line, int length, int state, Runs runs);
+    //The runs of a line, as pairs of where each starts and its style
+    class Runs {
+        private int[] runs = new int[16];
+        private int size;
+        //Starts a run, unless the last one has the same style
+        public void add(int start, int style) {
+            if ((size > 0) && (runs[size - 1] == style)) {
+                return;
+            }
+            if ((size > 0) && (runs[size - 2] == start)) {
+                size -= 2;
+                add(start, style);
+                return;
+            }
+            if (size == runs.length) {
+                runs = Arrays.copyOf(runs, size * 2);
+            }
+            runs[size] = start;
+            runs[size + 1] = style;
+            size += 2;
+        }
+        public int[] toArray() {
+            return Arrays.copyOf(runs, size);
+        }
+        public void clear() {
+            size = 0;
+        }
+    }
+}
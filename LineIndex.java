@@ -0,0 +1,276 @@
+package editor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+/* LineIndex
+ * Keeps the paragraphs of a file in order in a balanced tree (a treap),
+ * where every paragraph also records the number of paragraphs, characters,
+ * lines on screen and newlines below it, and of blocks not scanned yet.
+ * Finding the paragraph at an offset, a line on screen or a line of the
+ * file, or where a paragraph starts, only walks one path of the tree, and
+ * so does inserting, removing or resizing a paragraph.
+ */
+public class LineIndex {
+    private Paragraph root;
+    private Random random;
+    public LineIndex(List<Paragraph> paragraphs) {
+        random = new Random();
+        root = build(paragraphs);
+    }
+    public int size() {
+        return count(root);
+    }
+    public long length() {
+        return (root == null) ? 0 : root.totalLength;
+    }
+    public int getLineCount() {
+        return (root == null) ? 0 : root.totalLines;
+    }
+    //The newlines in every paragraph and every block that has been scanned
+    public int getNewlineCount() {
+        return (root == null) ? 0 : root.totalNewlines;
+    }
+    public Paragraph get(int index) {
+        Paragraph node = root;
+        while (node != null) {
+            int leftCount = count(node.left);
+            if (index < leftCount) {
+                node = node.left;
+            }
+            else if (index == leftCount) {
+                return node;
+            }
+            else {
+                index -= leftCount + 1;
+                node = node.right;
+            }
+        }
+        throw new IndexOutOfBoundsException("No paragraph " + index);
+    }
+    //Returns the paragraph containing offset, or the last one for the end of the file
+    public Paragraph paragraphAt(long offset) {
+        Paragraph node = root;
+        while (true) {
+            long leftLength = (node.left == null) ? 0 : node.left.totalLength;
+            if ((offset < leftLength) && (node.left != null)) {
+                node = node.left;
+                continue;
+            }
+            offset -= leftLength;
+            if ((offset < node.getLength()) || (node.right == null)) {
+                return node;
+            }
+            offset -= node.getLength();
+            node = node.right;
+        }
+    }
+    //Returns the paragraph displaying a line, or the last one for lines past the end
+    public Paragraph paragraphOfLine(int line) {
+        Paragraph node = root;
+        while (true) {
+            int leftLines = (node.left == null) ? 0 : node.left.totalLines;
+            if ((line < leftLines) && (node.left != null)) {
+                node = node.left;
+                continue;
+            }
+            line -= leftLines;
+            if ((line < node.getLineCount()) || (node.right == null)) {
+                return node;
+            }
+            line -= node.getLineCount();
+            node = node.right;
+        }
+    }
+    /*Returns the paragraph holding a newline, counting from 0, or the first
+     *unscanned block before it, since the newlines in that are not known yet.
+     *Returns null if there are no more newlines and nothing left unscanned.*/
+    public Paragraph paragraphOfNewline(int newline) {
+        Paragraph node = root;
+        while (node != null) {
+            int leftNewlines = (node.left == null) ? 0 : node.left.totalNewlines;
+            if ((newline < leftNewlines) || ((node.left != null) && (node.left.totalUnscanned > 0))) {
+                node = node.left;
+                continue;
+            }
+            newline -= leftNewlines;
+            if ((newline < node.getNewlineCount()) || !node.isScanned()) {
+                return node;
+            }
+            newline -= node.getNewlineCount();
+            node = node.right;
+        }
+        return null;
+    }
+    public int indexOf(Paragraph paragraph) {
+        int index = count(paragraph.left);
+        for (Paragraph node = paragraph; node.parent != null; node = node.parent) {
+            if (node.parent.right == node) {
+                index += count(node.parent.left) + 1;
+            }
+        }
+        return index;
+    }
+    //Returns the offset the paragraph starts at
+    public long startOf(Paragraph paragraph) {
+        long start = (paragraph.left == null) ? 0 : paragraph.left.totalLength;
+        for (Paragraph node = paragraph; node.parent != null; node = node.parent) {
+            if (node.parent.right == node) {
+                Paragraph sibling = node.parent.left;
+                start += ((sibling == null) ? 0 : sibling.totalLength) + node.parent.getLength();
+            }
+        }
+        return start;
+    }
+    public int firstLineOf(Paragraph paragraph) {
+        int line = (paragraph.left == null) ? 0 : paragraph.left.totalLines;
+        for (Paragraph node = paragraph; node.parent != null; node = node.parent) {
+            if (node.parent.right == node) {
+                Paragraph sibling = node.parent.left;
+                line += ((sibling == null) ? 0 : sibling.totalLines) + node.parent.getLineCount();
+            }
+        }
+        return line;
+    }
+    //Returns the paragraph after the given one, or null if it is the last
+    public Paragraph next(Paragraph paragraph) {
+        if (paragraph.right != null) {
+            Paragraph node = paragraph.right;
+            while (node.left != null) {
+                node = node.left;
+            }
+            return node;
+        }
+        Paragraph node = paragraph;
+        while ((node.parent != null) && (node.parent.right == node)) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+    //Must be called after a paragraph's length or line count changes
+    public void update(Paragraph paragraph) {
+        for (Paragraph node = paragraph; node != null; node = node.parent) {
+            pull(node);
+        }
+    }
+    //Recounts every paragraph, after many of them changed at once
+    public void updateAll() {
+        recount(root);
+    }
+    //Replaces the paragraphs from index from up to but not including to
+    public void replace(int from, int to, List<Paragraph> paragraphs) {
+        Paragraph[] parts = split(root, from);
+        Paragraph[] rest = split(parts[1], to - from);
+        root = merge(merge(parts[0], build(paragraphs)), rest[1]);
+        if (root != null) {
+            root.parent = null;
+        }
+    }
+    private static int count(Paragraph node) {
+        return (node == null) ? 0 : node.count;
+    }
+    private static void pull(Paragraph node) {
+        node.count = 1;
+        node.totalLength = node.getLength();
+        node.totalLines = node.getLineCount();
+        node.totalNewlines = node.getNewlineCount();
+        node.totalUnscanned = node.isScanned() ? 0 : 1;
+        if (node.left != null) {
+            node.left.parent = node;
+            node.count += node.left.count;
+            node.totalLength += node.left.totalLength;
+            node.totalLines += node.left.totalLines;
+            node.totalNewlines += node.left.totalNewlines;
+            node.totalUnscanned += node.left.totalUnscanned;
+        }
+        if (node.right != null) {
+            node.right.parent = node;
+            node.count += node.right.count;
+            node.totalLength += node.right.totalLength;
+            node.totalLines += node.right.totalLines;
+            node.totalNewlines += node.right.totalNewlines;
+            node.totalUnscanned += node.right.totalUnscanned;
+        }
+    }
+    private static void recount(Paragraph node) {
+        if (node != null) {
+            recount(node.left);
+            recount(node.right);
+            pull(node);
+        }
+    }
+    //Splits a tree into its first count paragraphs and the rest
+    private static Paragraph[] split(Paragraph node, int count) {
+        if (node == null) {
+            return new Paragraph[] {null, null};
+        }
+        node.parent = null;
+        if (count <= count(node.left)) {
+            Paragraph[] parts = split(node.left, count);
+            node.left = parts[1];
+            pull(node);
+            return new Paragraph[] {parts[0], node};
+        }
+        Paragraph[] parts = split(node.right, count - count(node.left) - 1);
+        node.right = parts[0];
+        pull(node);
+        return new Paragraph[] {node, parts[1]};
+    }
+    private static Paragraph merge(Paragraph left, Paragraph right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            pull(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        pull(right);
+        return right;
+    }
+    /*Builds a balanced tree out of paragraphs in order. The priorities are random
+     *but handed out largest first in breadth first order, so every paragraph
+     *outranks the ones below it.*/
+    private Paragraph build(List<Paragraph> paragraphs) {
+        if (paragraphs.isEmpty()) {
+            return null;
+        }
+        Paragraph top = build(paragraphs, 0, paragraphs.size());
+        int[] priorities = new int[paragraphs.size()];
+        for (int i = 0; i < priorities.length; i++) {
+            priorities[i] = random.nextInt();
+        }
+        Arrays.sort(priorities);
+        int next = priorities.length - 1;
+        ArrayDeque<Paragraph> queue = new ArrayDeque<Paragraph>();
+        queue.add(top);
+        while (!queue.isEmpty()) {
+            Paragraph node = queue.poll();
+            node.priority = priorities[next--];
+            if (node.left != null) {
+                queue.add(node.left);
+            }
+            if (node.right != null) {
+                queue.add(node.right);
+            }
+        }
+        top.parent = null;
+        return top;
+    }
+    private static Paragraph build(List<Paragraph> paragraphs, int from, int to) {
+        if (from == to) {
+            return null;
+        }
+        int middle = (from + to) / 2;
+        Paragraph node = paragraphs.get(middle);
+        node.left = build(paragraphs, from, middle);
+        node.right = build(paragraphs, middle + 1, to);
+        pull(node);
+        return node;
+    }
+}
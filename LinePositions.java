@@ -0,0 +1,78 @@
+package editor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+/* LinePositions
+ * Remembers where every offset of recently used lines is drawn, as the
+ * running total of the character widths from the start of the line. Once
+ * a line has been measured, the x of an offset is a lookup and the offset
+ * nearest to an x is a binary search, so clicks, drags and moving up and
+ * down do not walk along the line again. Lines are kept by the offsets
+ * they start and end at, which stay right while lines are being wrapped,
+ * and everything is forgotten when the text, the width or the font changes.
+ */
+public class LinePositions {
+    private static final int MAXPOSITIONS = 1 << 18; //Roughly how many offsets to keep in all
+    private Layout layout;
+    private int margin;
+    private LinkedHashMap<Long, double[]> lines; //Line start to positions, least recently used first
+    private int positions;
+    public LinePositions(Layout layout, int margin) {
+        this.layout = layout;
+        this.margin = margin;
+        lines = new LinkedHashMap<Long, double[]>(16, 0.75f, true);
+    }
+    public void clear() {
+        lines.clear();
+        positions = 0;
+    }
+    //Returns how far along the line from start to limit the given offset is drawn
+    public double getX(long start, long limit, long offset) {
+        return get(start, limit)[(int) Math.max(0, Math.min(offset, limit) - start)];
+    }
+    /*Returns the offset between start and end whose position is nearest to x,
+     *where end is the last offset the cursor can take on the line.*/
+    public long offsetAt(long start, long limit, long end, double x) {
+        double[] line = get(start, limit);
+        //The first character whose middle is past x
+        int low = 0;
+        int high = (int) (end - start);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (line[middle] + (line[middle + 1] - line[middle]) / 2 > x) {
+                high = middle;
+            }
+            else {
+                low = middle + 1;
+            }
+        }
+        return start + low;
+    }
+    //Returns the x of each offset from start to limit, measuring the line if it isn't kept
+    private double[] get(long start, long limit) {
+        double[] line = lines.get(start);
+        if ((line != null) && (line.length == limit - start + 1)) {
+            return line;
+        }
+        line = measure(start, limit);
+        double[] old = lines.put(start, line);
+        positions += line.length - ((old == null) ? 0 : old.length);
+        //Forget the least recently used lines, but always keep this one
+        Iterator<double[]> iterator = lines.values().iterator();
+        while ((positions > MAXPOSITIONS) && (lines.size() > 1)) {
+            positions -= iterator.next().length;
+            iterator.remove();
+        }
+        return line;
+    }
+    private double[] measure(long start, long limit) {
+        double[] line = new double[(int) (limit - start + 1)];
+        double currentX = margin;
+        for (long ptr = start; ptr < limit; ptr++) {
+            line[(int) (ptr - start)] = currentX;
+            currentX += layout.advance(ptr, currentX);
+        }
+        line[(int) (limit - start)] = currentX;
+        return line;
+    }
+}
@@ -0,0 +1,341 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+/* MappedText
+ * The text of a file that is too large to read into memory, seen through
+ * read-only memory mappings so that only the pages being looked at are
+ * loaded. The file is mapped a gigabyte at a time, since one mapping can't
+ * be larger than 2 GB, and decoded from UTF-8 a page of 64K bytes at a
+ * time as its characters are read, with "\r\n", "\n" and "\r" all turned
+ * into the '\r' TextList uses for newlines, as FileLoader does. The last
+ * few pages decoded are kept. Saving copies the original bytes back
+ * unchanged.
+ *
+ * The characters that start in each page are counted, eight bytes at a
+ * time, so that an offset can be turned into the page holding it. Opening
+ * only counts the first run of pages, so the top of the file can be shown
+ * straight away, and the other runs are counted on every processor in the
+ * background. The text is as long as the runs counted so far without a gap
+ * before them, and grows as the rest are counted. The decoding rules are
+ * simple enough to count without decoding: every byte that isn't a UTF-8
+ * continuation byte starts one character, or two if it starts a four byte
+ * sequence, except for a '\n' right after a '\r'. Continuation bytes that
+ * don't follow the first byte of a sequence are skipped, and a sequence
+ * that is cut short shows as U+FFFD.
+ */
+public class MappedText implements TextSource {
+    private static final int WINDOWBITS = 30;
+    private static final long WINDOWMASK = (1L << WINDOWBITS) - 1;
+    private static final int PAGEBITS = 16;
+    private static final int PAGESIZE = 1 << PAGEBITS;
+    private static final int COUNTPAGES = 1 << 8; //Pages counted at a time, the first run while opening
+    private static final int CACHEDPAGES = 64;
+    private static final long HIGHBITS = 0x8080808080808080L;
+    private static final long LOWBITS = 0x7f7f7f7f7f7f7f7fL;
+    private static final long RETURNS = 0x0d0d0d0d0d0d0d0dL;
+    private static final long NEWLINES = 0x0a0a0a0a0a0a0a0aL;
+    private static final char REPLACEMENT = '\ufffd';
+    private MappedByteBuffer[] windows;
+    private long size; //In bytes
+    private int pageCount;
+    //The offset of the first character of each counted page and the one after, or its count until then
+    private long[] pageStarts;
+    private volatile int countedPages; //No page before this is still being counted
+    private boolean[] countedRuns; //Which runs of pages have been counted, guarded by this
+    private CountDownLatch complete;
+    private volatile Runnable listener;
+    private Map<Integer, Page> pages; //Decoded pages, least recently used first, guarded by itself
+    private volatile Page last; //The last page read, so that reading along it doesn't look it up again
+    //The characters of a page, which never change once decoded
+    private static class Page {
+        private final long start;
+        private final char[] chars;
+        private Page(long start, char[] chars) {
+            this.start = start;
+            this.chars = chars;
+        }
+    }
+    public MappedText(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            windows = new MappedByteBuffer[(int) ((size + WINDOWMASK) >> WINDOWBITS)];
+            for (int i = 0; i < windows.length; i++) {
+                long start = (long) i << WINDOWBITS;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOWMASK + 1, size - start));
+                windows[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        pages = new LinkedHashMap<Integer, Page>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                return size() > CACHEDPAGES;
+            }
+        };
+        last = new Page(0, new char[0]);
+        pageCount = (int) ((size + PAGESIZE - 1) >> PAGEBITS);
+        pageStarts = new long[pageCount + 1];
+        countedRuns = new boolean[(pageCount + COUNTPAGES - 1) / COUNTPAGES];
+        complete = new CountDownLatch(1);
+        if (pageCount == 0) {
+            complete.countDown();
+            return;
+        }
+        countRun(0);
+        for (int run = 1; run < countedRuns.length; run++) {
+            final int next = run;
+            ForkJoinPool.commonPool().execute(new Runnable() {
+                @Override
+                public void run() {
+                    countRun(next);
+                }
+            });
+        }
+    }
+    @Override
+    public long length() {
+        return pageStarts[countedPages];
+    }
+    @Override
+    public boolean isComplete() {
+        return countedPages == pageCount;
+    }
+    @Override
+    public void awaitComplete() {
+        boolean interrupted = false;
+        while (complete.getCount() > 0) {
+            try {
+                complete.await();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    @Override
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+        listener.run();
+    }
+    @Override
+    public char charAt(long index) {
+        Page page = last;
+        if ((index < page.start) || (index >= page.start + page.chars.length)) {
+            page = getPage(index);
+        }
+        return page.chars[(int) (index - page.start)];
+    }
+    @Override
+    public void getChars(long from, long to, char[] destination, int destinationStart) {
+        while (from < to) {
+            Page page = getPage(from);
+            int offset = (int) (from - page.start);
+            int count = (int) Math.min(to - from, page.chars.length - offset);
+            System.arraycopy(page.chars, offset, destination, destinationStart, count);
+            from += count;
+            destinationStart += count;
+        }
+    }
+    /*Returns where in the file the character at index starts, or the size of
+     *the file for the length once it is all counted, or -1 if the character is
+     *the second half of a surrogate pair and so has no bytes of its own.*/
+    public long getBytePosition(long index) {
+        int counted = countedPages;
+        if (index == pageStarts[counted]) {
+            return Math.min(size, (long) counted << PAGEBITS);
+        }
+        int page = pageOf(index);
+        long characters = pageStarts[page];
+        long position = (long) page << PAGEBITS;
+        int previous = (position > 0) ? byteAt(position - 1) : -1;
+        while (true) {
+            int current = byteAt(position);
+            int started = charactersStarted(current, previous);
+            if (started > 0) {
+                if (characters == index) {
+                    return position;
+                }
+                if (characters + started > index) {
+                    return -1;
+                }
+                characters += started;
+            }
+            previous = current;
+            position += 1;
+        }
+    }
+    //Writes the file's bytes from start to end to the channel as they are
+    public void write(FileChannel channel, long start, long end) throws IOException {
+        while (start < end) {
+            ByteBuffer range = windows[(int) (start >> WINDOWBITS)].duplicate();
+            int from = (int) (start & WINDOWMASK);
+            int to = (int) Math.min(range.capacity(), from + end - start);
+            range.limit(to).position(from);
+            while (range.hasRemaining()) {
+                channel.write(range);
+            }
+            start += to - from;
+        }
+    }
+    /*Counts the characters starting in each page of a run, and adds up the
+     *pages counted since the last page without a gap before it.*/
+    private void countRun(int run) {
+        int from = run * COUNTPAGES;
+        int to = Math.min(pageCount, from + COUNTPAGES);
+        for (int page = from; page < to; page++) {
+            pageStarts[page + 1] = countPage(page);
+        }
+        int counted;
+        synchronized (this) {
+            countedRuns[run] = true;
+            counted = countedPages;
+            while ((counted < pageCount) && countedRuns[counted / COUNTPAGES]) {
+                pageStarts[counted + 1] += pageStarts[counted];
+                counted += 1;
+            }
+            if (counted == countedPages) {
+                return;
+            }
+            countedPages = counted;
+        }
+        if (counted == pageCount) {
+            complete.countDown();
+        }
+        Runnable current = listener;
+        if (current != null) {
+            current.run();
+        }
+    }
+    /*Counts the characters that start in a page. Each long read holds eight
+     *bytes, with the first in its low byte, and a byte's top bit says whether
+     *it is a continuation byte, the first of four or one of a "\r\n" pair.*/
+    private int countPage(int page) {
+        long start = (long) page << PAGEBITS;
+        ByteBuffer window = windows[(int) (start >> WINDOWBITS)];
+        int position = (int) (start & WINDOWMASK);
+        int limit = position + (int) Math.min(PAGESIZE, size - start);
+        boolean afterReturn = (start > 0) && (byteAt(start - 1) == '\r');
+        int characters = 0;
+        for (; position + 8 <= limit; position += 8) {
+            long word = window.getLong(position);
+            long continuations = word & ~(word << 1) & HIGHBITS;
+            long fourBytes = word & (word << 1) & (word << 2) & (word << 3) & ~(word << 4) & HIGHBITS;
+            long returns = zeroBytes(word ^ RETURNS);
+            long pairs = zeroBytes(word ^ NEWLINES) & ((returns << 8) | (afterReturn ? 0x80 : 0));
+            characters += 8 - Long.bitCount(continuations) + Long.bitCount(fourBytes) - Long.bitCount(pairs);
+            afterReturn = (returns < 0);
+        }
+        for (; position < limit; position++) {
+            int current = window.get(position) & 0xff;
+            characters += charactersStarted(current, afterReturn ? '\r' : -1);
+            afterReturn = (current == '\r');
+        }
+        return characters;
+    }
+    //Sets the top bit of each byte that is zero, and no others
+    private static long zeroBytes(long word) {
+        return ~(((word & LOWBITS) + LOWBITS) | word | LOWBITS);
+    }
+    //How many characters a byte starts, given the byte before it
+    private static int charactersStarted(int current, int previous) {
+        if (((current & 0xc0) == 0x80) || ((current == '\n') && (previous == '\r'))) {
+            return 0;
+        }
+        return ((current & 0xf8) == 0xf0) ? 2 : 1;
+    }
+    //Returns the decoded page holding the character at index
+    private Page getPage(long index) {
+        if ((index < 0) || (index >= length())) {
+            throw new IndexOutOfBoundsException("Offset " + index + " out of range 0-" + length());
+        }
+        int number = pageOf(index);
+        Page page;
+        synchronized (pages) {
+            page = pages.get(number);
+        }
+        if (page == null) {
+            page = new Page(pageStarts[number], decode(number));
+            synchronized (pages) {
+                pages.put(number, page);
+            }
+        }
+        last = page;
+        return page;
+    }
+    //Returns the last page starting at or before index, which is the one holding it
+    private int pageOf(long index) {
+        int low = 0;
+        int high = countedPages - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (pageStarts[middle] <= index) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+    //Decodes the characters that start in a page, reading on into the next for the last one
+    private char[] decode(int page) {
+        char[] chars = new char[(int) (pageStarts[page + 1] - pageStarts[page])];
+        int length = 0;
+        long start = (long) page << PAGEBITS;
+        long end = Math.min(size, start + PAGESIZE);
+        int previous = (start > 0) ? byteAt(start - 1) : -1;
+        for (long position = start; position < end; position++) {
+            int current = byteAt(position);
+            if (charactersStarted(current, previous) > 0) {
+                length = decodeCharacter(current, position, chars, length);
+            }
+            previous = current;
+        }
+        return chars;
+    }
+    //Decodes the character whose first byte is at position into chars, returning the new length
+    private int decodeCharacter(int first, long position, char[] chars, int length) {
+        if (first < 0x80) {
+            chars[length++] = (first == '\n') ? '\r' : (char) first;
+            return length;
+        }
+        if (first >= 0xf8) {
+            chars[length++] = REPLACEMENT;
+            return length;
+        }
+        int needed = (first >= 0xf0) ? 3 : (first >= 0xe0) ? 2 : 1;
+        int codePoint = first & (0x3f >> needed);
+        int found = 0;
+        while ((found < needed) && (position + 1 + found < size)
+            && ((byteAt(position + 1 + found) & 0xc0) == 0x80)) {
+            codePoint = (codePoint << 6) | (byteAt(position + 1 + found) & 0x3f);
+            found += 1;
+        }
+        if (needed < 3) {
+            chars[length++] = (found == needed) ? (char) codePoint : REPLACEMENT;
+        }
+        else if ((found == needed) && (codePoint >= 0x10000) && (codePoint <= Character.MAX_CODE_POINT)) {
+            chars[length++] = Character.highSurrogate(codePoint);
+            chars[length++] = Character.lowSurrogate(codePoint);
+        }
+        else {
+            chars[length++] = REPLACEMENT;
+            chars[length++] = REPLACEMENT;
+        }
+        return length;
+    }
+    private int byteAt(long position) {
+        return windows[(int) (position >> WINDOWBITS)].get((int) (position & WINDOWMASK)) & 0xff;
+    }
+}
@@ -0,0 +1,310 @@
+package editor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+/* MatchIndex
+ * The matches of a search, as the offsets they start and end at, sorted
+ * by start. Results are merged in as they are found, and edits move the
+ * matches after them and drop the ones they cut into, so the index never
+ * has to be rebuilt by searching the whole text again.
+ *
+ * The matches are kept in a balanced tree (a treap) in which each match
+ * only records how far it starts from the match before it, and every
+ * match the totals of those distances below it, as LineIndex does for
+ * paragraphs. Moving every match after an edit is then a change to one
+ * distance, so an edit only walks the matches near it.
+ */
+public class MatchIndex {
+    private Match root;
+    private int maxLength; //No match is longer than this, for finding the ones around an offset
+    private Random random;
+    private static class Match {
+        private long gap; //From the start of the match before, or from 0 for the first
+        private int length;
+        private int priority;
+        private Match left;
+        private Match right;
+        private int count; //Matches in this subtree
+        private long totalGap; //The gaps of this subtree added up
+        private Match(long gap, int length, int priority) {
+            this.gap = gap;
+            this.length = length;
+            this.priority = priority;
+            pull(this);
+        }
+    }
+    public MatchIndex() {
+        random = new Random();
+        clear();
+    }
+    public void clear() {
+        root = null;
+        maxLength = 0;
+    }
+    public int size() {
+        return count(root);
+    }
+    public long getStart(int index) {
+        Match node = root;
+        long base = 0; //Where the match before the current subtree starts
+        while (node != null) {
+            int leftCount = count(node.left);
+            if (index < leftCount) {
+                node = node.left;
+                continue;
+            }
+            base += totalGap(node.left) + node.gap;
+            if (index == leftCount) {
+                return base;
+            }
+            index -= leftCount + 1;
+            node = node.right;
+        }
+        throw new IndexOutOfBoundsException("No match " + index);
+    }
+    public long getEnd(int index) {
+        Match node = root;
+        long base = 0;
+        while (node != null) {
+            int leftCount = count(node.left);
+            if (index < leftCount) {
+                node = node.left;
+                continue;
+            }
+            base += totalGap(node.left) + node.gap;
+            if (index == leftCount) {
+                return base + node.length;
+            }
+            index -= leftCount + 1;
+            node = node.right;
+        }
+        throw new IndexOutOfBoundsException("No match " + index);
+    }
+    //Returns the first match starting at or after offset, or size() if there is none
+    public int indexAt(long offset) {
+        Match node = root;
+        long base = 0;
+        int index = 0;
+        int result = size();
+        while (node != null) {
+            long start = base + totalGap(node.left) + node.gap;
+            if (start >= offset) {
+                result = index + count(node.left);
+                node = node.left;
+            }
+            else {
+                index += count(node.left) + 1;
+                base = start;
+                node = node.right;
+            }
+        }
+        return result;
+    }
+    //Returns a match from which on every match that could reach past offset can be found
+    public int indexAround(long offset) {
+        return indexAt(offset - maxLength);
+    }
+    //Adds a match that starts after every match so far
+    public void append(long start, long end) {
+        root = merge(root, new Match(start - totalGap(root), (int) (end - start), random.nextInt()));
+        maxLength = Math.max(maxLength, (int) (end - start));
+    }
+    //Adds the matches of another index, keeping one of any two that start at the same offset
+    public void merge(MatchIndex other) {
+        int otherCount = other.size();
+        if (otherCount == 0) {
+            return;
+        }
+        long[] otherStarts = new long[otherCount];
+        long[] otherEnds = new long[otherCount];
+        collect(other.root, 0, otherStarts, otherEnds, 0);
+        //Only the matches among the other's need merging with them
+        int from = indexAt(otherStarts[0]);
+        int to = indexAt(otherStarts[otherCount - 1] + 1);
+        Match[] parts = split(root, from);
+        Match[] rest = split(parts[1], to - from);
+        long origin = totalGap(parts[0]);
+        int oldCount = count(rest[0]);
+        long[] oldStarts = new long[oldCount];
+        long[] oldEnds = new long[oldCount];
+        collect(rest[0], origin, oldStarts, oldEnds, 0);
+        long[] starts = new long[oldCount + otherCount];
+        long[] ends = new long[starts.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while ((i < oldCount) || (j < otherCount)) {
+            if ((j == otherCount) || ((i < oldCount) && (oldStarts[i] <= otherStarts[j]))) {
+                if ((j < otherCount) && (oldStarts[i] == otherStarts[j])) {
+                    j += 1;
+                }
+                starts[count] = oldStarts[i];
+                ends[count] = oldEnds[i];
+                i += 1;
+            }
+            else {
+                starts[count] = otherStarts[j];
+                ends[count] = otherEnds[j];
+                j += 1;
+            }
+            count += 1;
+        }
+        maxLength = Math.max(maxLength, other.maxLength);
+        root = join(parts[0], origin, starts, ends, count, rest[1], origin + totalGap(rest[0]), 0);
+    }
+    /*Updates the matches for removedLength characters at offset being replaced
+     *by insertedLength others. Matches the change cuts into are dropped, since
+     *they may no longer match, and the ones after it move along.*/
+    public void edit(long offset, int removedLength, int insertedLength) {
+        //Only matches starting from here up to the end of the change can be cut into
+        int from = indexAround(offset);
+        int to = indexAt(offset + removedLength);
+        Match[] parts = split(root, from);
+        Match[] rest = split(parts[1], to - from);
+        long origin = totalGap(parts[0]);
+        long[] starts = new long[count(rest[0])];
+        long[] ends = new long[starts.length];
+        collect(rest[0], origin, starts, ends, 0);
+        //Those starting at the change are cut into, so only the ones ending before it are kept
+        int kept = 0;
+        for (int i = 0; i < starts.length; i++) {
+            if (ends[i] <= offset) {
+                starts[kept] = starts[i];
+                ends[kept] = ends[i];
+                kept += 1;
+            }
+        }
+        root = join(parts[0], origin, starts, ends, kept, rest[1], origin + totalGap(rest[0]),
+            insertedLength - removedLength);
+    }
+    //Drops the matches starting in [from, to)
+    public void remove(long from, long to) {
+        int first = indexAt(from);
+        int last = indexAt(to);
+        Match[] parts = split(root, first);
+        Match[] rest = split(parts[1], last - first);
+        long origin = totalGap(parts[0]);
+        root = join(parts[0], origin, new long[0], new long[0], 0, rest[1], origin + totalGap(rest[0]), 0);
+    }
+    private static int count(Match node) {
+        return (node == null) ? 0 : node.count;
+    }
+    private static long totalGap(Match node) {
+        return (node == null) ? 0 : node.totalGap;
+    }
+    private static void pull(Match node) {
+        node.count = 1 + count(node.left) + count(node.right);
+        node.totalGap = node.gap + totalGap(node.left) + totalGap(node.right);
+    }
+    /*Copies the matches of a tree into starts and ends from index count on,
+     *base being where the match before the tree starts. Returns the new count.*/
+    private static int collect(Match node, long base, long[] starts, long[] ends, int count) {
+        if (node == null) {
+            return count;
+        }
+        count = collect(node.left, base, starts, ends, count);
+        long start = base + totalGap(node.left) + node.gap;
+        starts[count] = start;
+        ends[count] = start + node.length;
+        return collect(node.right, start, starts, ends, count + 1);
+    }
+    /*Puts the matches in starts and ends between the trees before and after,
+     *where the last match before starts at origin and the one before after
+     *used to start at afterBase, and moves every match of after by shift.*/
+    private Match join(Match before, long origin, long[] starts, long[] ends, int count,
+        Match after, long afterBase, long shift) {
+        long last = (count > 0) ? starts[count - 1] : origin;
+        if (after != null) {
+            setFirstGap(after, afterBase + firstGap(after) + shift - last);
+        }
+        return merge(merge(before, build(origin, starts, ends, count)), after);
+    }
+    private static long firstGap(Match node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.gap;
+    }
+    private static void setFirstGap(Match node, long gap) {
+        if (node.left == null) {
+            node.gap = gap;
+        }
+        else {
+            setFirstGap(node.left, gap);
+        }
+        pull(node);
+    }
+    //Splits a tree into its first count matches and the rest
+    private static Match[] split(Match node, int count) {
+        if (node == null) {
+            return new Match[] {null, null};
+        }
+        if (count <= count(node.left)) {
+            Match[] parts = split(node.left, count);
+            node.left = parts[1];
+            pull(node);
+            return new Match[] {parts[0], node};
+        }
+        Match[] parts = split(node.right, count - count(node.left) - 1);
+        node.right = parts[0];
+        pull(node);
+        return new Match[] {node, parts[1]};
+    }
+    private static Match merge(Match left, Match right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            pull(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        pull(right);
+        return right;
+    }
+    /*Builds a balanced tree out of sorted matches, the match before them
+     *starting at origin. As in LineIndex, the random priorities are handed out
+     *largest first in breadth first order.*/
+    private Match build(long origin, long[] starts, long[] ends, int count) {
+        if (count == 0) {
+            return null;
+        }
+        Match top = build(origin, starts, ends, 0, count);
+        int[] priorities = new int[count];
+        for (int i = 0; i < count; i++) {
+            priorities[i] = random.nextInt();
+        }
+        Arrays.sort(priorities);
+        int next = count - 1;
+        ArrayDeque<Match> queue = new ArrayDeque<Match>();
+        queue.add(top);
+        while (!queue.isEmpty()) {
+            Match node = queue.poll();
+            node.priority = priorities[next--];
+            if (node.left != null) {
+                queue.add(node.left);
+            }
+            if (node.right != null) {
+                queue.add(node.right);
+            }
+        }
+        return top;
+    }
+    private static Match build(long origin, long[] starts, long[] ends, int from, int to) {
+        if (from == to) {
+            return null;
+        }
+        int middle = (from + to) / 2;
+        long previous = (middle == 0) ? origin : starts[middle - 1];
+        Match node = new Match(starts[middle] - previous, (int) (ends[middle] - starts[middle]), 0);
+        node.left = build(origin, starts, ends, from, middle);
+        node.right = build(origin, starts, ends, middle + 1, to);
+        pull(node);
+        return node;
+    }
+}
@@ -0,0 +1,198 @@
+package editor;
+
+/* Paragraph
+ * A run of text ending in a newline (or at the end of the file) and the
+ * offsets at which it wraps onto new lines on the screen. Edits since
+ * the last wrap are remembered so that rewrapping can start near them
+ * and stop as soon as the old line breaks line up again.
+ *
+ * In a very large file a Paragraph can also be a block standing in for
+ * many paragraphs that have not been split apart yet, each counted as a
+ * single line, or for the rest of the file when it has not even been
+ * scanned for newlines.
+ *
+ * A paragraph also keeps the style runs a Lexer split it into, and the
+ * state the lexer was in at its end, for the Highlighter, and the line
+ * breaks it had at a few recent widths and fonts, for the Layout to put
+ * back if one of them comes back before the paragraph is edited.
+ */
+public class Paragraph {
+    private int length; //Including the newline at the end, if there is one
+    private int[] breaks; //Where each line after the first starts, or null if never wrapped
+    private int dirtyFrom = -1; //The edited region, relative to the start, -1 if clean
+    private int dirtyTo;
+    private int delta; //How much longer the paragraph is than when it was last wrapped
+    private int blockSize; //The number of paragraphs in a block, 0 for a real paragraph
+    private int newlines; //The newlines in the paragraph or block, 0 for a block not scanned yet
+    private boolean scanned = true; //False for a block whose newlines haven't been counted
+    private int lexState = -1; //The state a Lexer ended this paragraph in, -1 if never lexed
+    private int[] styles; //Where each run of a style starts, relative to the start, and its style
+    private int editCount; //Goes up with every edit, to recognize breaks found for older text
+    private int[][] savedBreaks; //Breaks kept in each of the Layout's slots, or null since the last edit
+    private int[] savedStamps; //Which use of each slot the kept breaks belong to
+    //Links and totals for the LineIndex tree this paragraph is part of
+    Paragraph left;
+    Paragraph right;
+    Paragraph parent;
+    int priority;
+    int count;
+    long totalLength;
+    int totalLines;
+    int totalNewlines;
+    int totalUnscanned;
+    //A paragraph ends in a newline unless it is the last of the file or is cut off by an unscanned block
+    public Paragraph(int length, boolean endsInNewline) {
+        this.length = length;
+        newlines = endsInNewline ? 1 : 0;
+    }
+    //Returns a block of the given number of paragraphs that will be split later
+    public static Paragraph block(int length, int paragraphs, int newlines) {
+        Paragraph block = new Paragraph(length, false);
+        block.blockSize = paragraphs;
+        block.newlines = newlines;
+        return block;
+    }
+    //Returns a block for text that has not been scanned for newlines yet
+    public static Paragraph unscanned(int length) {
+        Paragraph block = block(length, 1, 0);
+        block.scanned = false;
+        return block;
+    }
+    public boolean isBlock() {
+        return blockSize > 0;
+    }
+    public boolean isScanned() {
+        return scanned;
+    }
+    public int getLength() {
+        return length;
+    }
+    /*The newlines in the paragraph, or in the paragraphs of a block. Edits
+     *that add or remove one split the paragraphs again, so this doesn't change.*/
+    public int getNewlineCount() {
+        return newlines;
+    }
+    public int getLineCount() {
+        if (blockSize > 0) {
+            return blockSize;
+        }
+        return (breaks == null) ? 1 : breaks.length + 1;
+    }
+    //The offset, relative to the start of the paragraph, that a line starts at
+    public int getLineStart(int line) {
+        return (line == 0) ? 0 : breaks[line - 1];
+    }
+    //The line of the paragraph that the given relative offset is displayed on
+    public int lineOf(int offset) {
+        if (breaks == null) {
+            return 0;
+        }
+        int low = 0;
+        int high = breaks.length;
+        while (low < high) {
+            int middle = (low + high) / 2;
+            if (breaks[middle] <= offset) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    public boolean isWrapped() {
+        return (breaks != null) && (dirtyFrom < 0);
+    }
+    //Records that removed characters at offset were replaced by inserted ones
+    public void edit(int offset, int removed, int inserted) {
+        length += inserted - removed;
+        editCount += 1;
+        savedBreaks = null;
+        if (styles != null) {
+            //Keep the runs roughly in place until the paragraph is lexed again
+            for (int i = 0; i < styles.length; i += 2) {
+                if (styles[i] > offset) {
+                    styles[i] = Math.max(offset, styles[i] + inserted - removed);
+                }
+            }
+        }
+        if (dirtyFrom < 0) {
+            dirtyFrom = offset;
+            dirtyTo = offset + inserted;
+            delta = inserted - removed;
+            return;
+        }
+        int newTo;
+        if (dirtyTo <= offset) {
+            newTo = dirtyTo;
+        }
+        else if (dirtyTo >= offset + removed) {
+            newTo = dirtyTo + inserted - removed;
+        }
+        else {
+            newTo = offset + inserted;
+        }
+        dirtyFrom = Math.min(dirtyFrom, offset);
+        dirtyTo = Math.max(newTo, offset + inserted);
+        delta += inserted - removed;
+    }
+    public int getLexState() {
+        return lexState;
+    }
+    public int[] getStyles() {
+        return styles;
+    }
+    public void setStyles(int newLexState, int[] newStyles) {
+        lexState = newLexState;
+        styles = newStyles;
+    }
+    //Forgets the current line breaks so that the next wrap starts from scratch
+    public void invalidate() {
+        breaks = null;
+        dirtyFrom = -1;
+    }
+    //Keeps the current breaks in a slot, if they are up to date, so restoreBreaks can put them back
+    void saveBreaks(int slot, int stamp, int slots) {
+        if ((breaks == null) || (dirtyFrom >= 0)) {
+            if (savedBreaks != null) {
+                savedBreaks[slot] = null;
+            }
+            return;
+        }
+        if (savedBreaks == null) {
+            savedBreaks = new int[slots][];
+            savedStamps = new int[slots];
+        }
+        savedBreaks[slot] = breaks;
+        savedStamps[slot] = stamp;
+    }
+    //Puts back the breaks kept in a slot, or forgets the current ones if there are none
+    void restoreBreaks(int slot, int stamp) {
+        if ((savedBreaks != null) && (savedBreaks[slot] != null) && (savedStamps[slot] == stamp)) {
+            setBreaks(savedBreaks[slot]);
+        }
+        else {
+            invalidate();
+        }
+    }
+    int getEditCount() {
+        return editCount;
+    }
+    int[] getBreaks() {
+        return breaks;
+    }
+    int getDirtyFrom() {
+        return dirtyFrom;
+    }
+    int getDirtyTo() {
+        return dirtyTo;
+    }
+    int getDelta() {
+        return delta;
+    }
+    void setBreaks(int[] newBreaks) {
+        breaks = newBreaks;
+        dirtyFrom = -1;
+        delta = 0;
+    }
+}
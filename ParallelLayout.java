@@ -0,0 +1,167 @@
+package editor;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+/* ParallelLayout
+ * Wraps the paragraphs of a TextList that are waiting to be wrapped on a
+ * fork/join pool, a Layout.Batch at a time, starting with the lines on the
+ * screen. Each wrapped batch is handed back through an Executor (the
+ * JavaFX application thread) to be applied. Starting a new job, because
+ * the width or font changed again, makes the old one stop where it is.
+ *
+ * It can also wrap a whole set of Batches for another font size without
+ * applying any of them, so that they can be swapped in all at once.
+ */
+public class ParallelLayout {
+    private static final int BATCHSIZE = 1024;
+    private ForkJoinPool pool;
+    private Executor publisher;
+    private Runnable refresh;
+    private volatile int job; //The job that is running; tasks of older jobs give up
+    private int remaining; //Batches of the current job that haven't been applied
+    private Runnable whenDone;
+    private volatile int prepareJob; //The same for prepare, which runs alongside
+    //Results are applied on publisher, which then runs refresh
+    public ParallelLayout(Executor publisher, Runnable refresh) {
+        this.publisher = publisher;
+        this.refresh = refresh;
+        pool = ForkJoinPool.commonPool();
+    }
+    /*Wraps everything text has waiting, nearest firstLine first, then runs
+     *whenDone on the publisher. Must be called from the publisher's thread.*/
+    public void start(TextList text, int firstLine, Runnable done) {
+        job += 1;
+        List<Layout.Batch> batches = text.getPendingBatches(firstLine, BATCHSIZE);
+        remaining = batches.size();
+        whenDone = done;
+        if (batches.isEmpty()) {
+            done.run();
+            return;
+        }
+        //The batch on the screen goes in on its own so that it is published first
+        pool.execute(new WrapTask(text, batches, 0, 1, job));
+        if (batches.size() > 1) {
+            pool.execute(new WrapTask(text, batches, 1, batches.size(), job));
+        }
+    }
+    public void cancel() {
+        job += 1;
+    }
+    /*Wraps every batch, then runs done on the publisher, unless prepare is
+     *called again or cancelPrepare is called first.*/
+    public void prepare(final List<Layout.Batch> batches, final Runnable done) {
+        prepareJob += 1;
+        final int taskJob = prepareJob;
+        pool.execute(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(new PrepareTask(batches, 0, batches.size(), taskJob));
+                if (taskJob == prepareJob) {
+                    publisher.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (taskJob == prepareJob) {
+                                done.run();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+    public void cancelPrepare() {
+        prepareJob += 1;
+    }
+    private class PrepareTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private List<Layout.Batch> batches;
+        private int from;
+        private int to;
+        private int taskJob;
+        private PrepareTask(List<Layout.Batch> batches, int from, int to, int taskJob) {
+            this.batches = batches;
+            this.from = from;
+            this.to = to;
+            this.taskJob = taskJob;
+        }
+        @Override
+        protected void compute() {
+            if ((taskJob != prepareJob) || (from >= to)) {
+                return;
+            }
+            if (to - from > 1) {
+                int middle = (from + to) / 2;
+                invokeAll(new PrepareTask(batches, from, middle, taskJob),
+                    new PrepareTask(batches, middle, to, taskJob));
+                return;
+            }
+            try {
+                batches.get(from).wrap();
+            } catch (RuntimeException re) {
+                //Left unwrapped, which applyAll skips, so that the others are still swapped in
+                System.out.println("Error while wrapping in parallel! Exception was: " + re);
+            }
+        }
+    }
+    private class WrapTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private TextList text;
+        private List<Layout.Batch> batches;
+        private int from;
+        private int to;
+        private int taskJob;
+        private WrapTask(TextList text, List<Layout.Batch> batches, int from, int to, int taskJob) {
+            this.text = text;
+            this.batches = batches;
+            this.from = from;
+            this.to = to;
+            this.taskJob = taskJob;
+        }
+        @Override
+        protected void compute() {
+            if (taskJob != job) {
+                return;
+            }
+            if (to - from > 1) {
+                int middle = (from + to) / 2;
+                invokeAll(new WrapTask(text, batches, from, middle, taskJob),
+                    new WrapTask(text, batches, middle, to, taskJob));
+                return;
+            }
+            Layout.Batch batch = batches.get(from);
+            try {
+                batch.wrap();
+            } catch (RuntimeException re) {
+                //The batch is still published, unwrapped, so that the job can finish
+                System.out.println("Error while wrapping in parallel! Exception was: " + re);
+            }
+            if (taskJob == job) {
+                publisher.execute(new Publish(text, batch, taskJob));
+            }
+        }
+    }
+    private class Publish implements Runnable {
+        private TextList text;
+        private Layout.Batch batch;
+        private int publishJob;
+        private Publish(TextList text, Layout.Batch batch, int publishJob) {
+            this.text = text;
+            this.batch = batch;
+            this.publishJob = publishJob;
+        }
+        @Override
+        public void run() {
+            if (publishJob != job) {
+                return;
+            }
+            text.applyBatch(batch);
+            refresh.run();
+            remaining -= 1;
+            if (remaining == 0) {
+                whenDone.run();
+            }
+        }
+    }
+}
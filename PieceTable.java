@@ -0,0 +1,318 @@
+package editor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+/* PieceTable
+ * A text buffer that never modifies the text it was created with.
+ * Inserted text is appended to a separate buffer, and the document
+ * is described by a list of pieces, each pointing at a run of
+ * characters in either the original text or the added text. A snapshot
+ * shares both and copies only the list of pieces, so it can be read on
+ * another thread while this table keeps being edited. Offsets are longs,
+ * since the original text can be a mapped file too long for an int.
+ * While a mapped file is still being counted, the characters counted since
+ * are taken in at the end of the document by grow.
+ */
+public class PieceTable {
+    private TextSource original;
+    private AddBuffer added;
+    private List<Piece> pieces;
+    private long length;
+    private long originalLength; //How much of the original text has been taken in
+    private boolean readOnly;
+    //The last piece looked up, so that sequential reads don't rescan the list
+    private int cachedIndex;
+    private long cachedStart;
+    private static class Piece {
+        private final boolean isAdded;
+        private final long start;
+        private final long length;
+        private Piece(boolean isAdded, long start, long length) {
+            this.isAdded = isAdded;
+            this.start = start;
+            this.length = length;
+        }
+    }
+    /*Inserted text, stored in fixed size chunks that are filled in order and
+     *never moved, so characters already written stay where a snapshot saw them.*/
+    private static class AddBuffer {
+        private static final int CHUNKBITS = 16;
+        private static final int CHUNKSIZE = 1 << CHUNKBITS;
+        private char[][] chunks;
+        private int length;
+        private AddBuffer(char[][] chunks, int length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+        private void append(CharSequence text) {
+            for (int i = 0; i < text.length(); i++) {
+                int chunk = length >> CHUNKBITS;
+                if (chunk == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, chunks.length * 2);
+                }
+                if (chunks[chunk] == null) {
+                    chunks[chunk] = new char[CHUNKSIZE];
+                }
+                chunks[chunk][length & (CHUNKSIZE - 1)] = text.charAt(i);
+                length += 1;
+            }
+        }
+        private char charAt(int index) {
+            return chunks[index >> CHUNKBITS][index & (CHUNKSIZE - 1)];
+        }
+        private void getChars(int from, int to, char[] destination, int destinationStart) {
+            while (from < to) {
+                int offset = from & (CHUNKSIZE - 1);
+                int count = Math.min(to - from, CHUNKSIZE - offset);
+                System.arraycopy(chunks[from >> CHUNKBITS], offset, destination, destinationStart, count);
+                from += count;
+                destinationStart += count;
+            }
+        }
+        private void appendTo(StringBuilder builder, int from, int to) {
+            while (from < to) {
+                int offset = from & (CHUNKSIZE - 1);
+                int count = Math.min(to - from, CHUNKSIZE - offset);
+                builder.append(chunks[from >> CHUNKBITS], offset, count);
+                from += count;
+            }
+        }
+    }
+    public PieceTable() {
+        this("");
+    }
+    public PieceTable(CharSequence original) {
+        this(new TextSource.Chars(original));
+    }
+    public PieceTable(TextSource original) {
+        this.original = original;
+        added = new AddBuffer(new char[1][], 0);
+        pieces = new ArrayList<Piece>();
+        length = original.length();
+        originalLength = length;
+        if (length > 0) {
+            pieces.add(new Piece(false, 0, length));
+        }
+    }
+    private PieceTable(PieceTable source) {
+        original = source.original;
+        added = new AddBuffer(source.added.chunks.clone(), source.added.length);
+        pieces = new ArrayList<Piece>(source.pieces);
+        length = source.length;
+        originalLength = source.originalLength;
+        readOnly = true;
+    }
+    /*Returns a read-only copy of the current text, which costs a copy of the
+     *piece list and is safe to hand to another thread.*/
+    public PieceTable snapshot() {
+        return new PieceTable(this);
+    }
+    public long length() {
+        return length;
+    }
+    public char charAt(long offset) {
+        if ((offset < 0) || (offset >= length)) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " out of range 0-" + length);
+        }
+        int index = findPiece(offset);
+        Piece piece = pieces.get(index);
+        long position = piece.start + offset - cachedStart;
+        return piece.isAdded ? added.charAt((int) position) : original.charAt(position);
+    }
+    public void insert(long offset, CharSequence text) {
+        checkWritable();
+        checkRange(offset, offset);
+        if (text.length() == 0) {
+            return;
+        }
+        int addStart = added.length;
+        added.append(text);
+        int index = findPiece(offset);
+        long pieceStart = cachedStart;
+        if ((index < pieces.size()) && (offset > pieceStart)) {
+            //Split the piece the insertion falls into
+            Piece piece = pieces.get(index);
+            long leftLength = offset - pieceStart;
+            pieces.set(index, new Piece(piece.isAdded, piece.start, leftLength));
+            pieces.add(index + 1, new Piece(piece.isAdded, piece.start + leftLength, piece.length - leftLength));
+            index += 1;
+            pieceStart = offset;
+        }
+        Piece previous = (index > 0) ? pieces.get(index - 1) : null;
+        if ((previous != null) && previous.isAdded && (previous.start + previous.length == addStart)) {
+            //Typing at the end of the last insertion just grows that piece
+            pieces.set(index - 1, new Piece(true, previous.start, previous.length + text.length()));
+            pieceStart -= previous.length;
+            index -= 1;
+        }
+        else {
+            pieces.add(index, new Piece(true, addStart, text.length()));
+        }
+        length += text.length();
+        cachedIndex = index;
+        cachedStart = pieceStart;
+    }
+    public void delete(long offset, long count) {
+        checkWritable();
+        checkRange(offset, offset + count);
+        if (count == 0) {
+            return;
+        }
+        int index = findPiece(offset);
+        long pieceStart = cachedStart;
+        if (offset > pieceStart) {
+            Piece piece = pieces.get(index);
+            long leftLength = offset - pieceStart;
+            pieces.set(index, new Piece(piece.isAdded, piece.start, leftLength));
+            pieces.add(index + 1, new Piece(piece.isAdded, piece.start + leftLength, piece.length - leftLength));
+            index += 1;
+        }
+        long remaining = count;
+        while (remaining > 0) {
+            Piece piece = pieces.get(index);
+            if (piece.length <= remaining) {
+                pieces.remove(index);
+                remaining -= piece.length;
+            }
+            else {
+                pieces.set(index, new Piece(piece.isAdded, piece.start + remaining, piece.length - remaining));
+                remaining = 0;
+            }
+        }
+        length -= count;
+        cachedIndex = index;
+        cachedStart = offset;
+    }
+    /*Appends whatever the original text gained since it was last looked at to
+     *the end of the document, returning how many characters that was.*/
+    public long grow() {
+        checkWritable();
+        long added = original.length() - originalLength;
+        if (added == 0) {
+            return 0;
+        }
+        Piece previous = pieces.isEmpty() ? null : pieces.get(pieces.size() - 1);
+        if ((previous != null) && !previous.isAdded && (previous.start + previous.length == originalLength)) {
+            pieces.set(pieces.size() - 1, new Piece(false, previous.start, previous.length + added));
+        }
+        else {
+            pieces.add(new Piece(false, originalLength, added));
+        }
+        originalLength += added;
+        length += added;
+        return added;
+    }
+    //Whether the whole of the original text has been taken in
+    public boolean isComplete() {
+        return original.isComplete() && (originalLength == original.length());
+    }
+    //Returns the characters in [from, to) as a String, which can't hold more than Integer.MAX_VALUE
+    public String getText(long from, long to) {
+        checkRange(from, to);
+        if (to - from > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range " + from + "-" + to + " is too long for a String");
+        }
+        StringBuilder builder = new StringBuilder((int) (to - from));
+        appendTo(builder, from, to);
+        return builder.toString();
+    }
+    public void appendTo(StringBuilder builder, long from, long to) {
+        checkRange(from, to);
+        if (from == to) {
+            return;
+        }
+        int index = findPiece(from);
+        long pieceStart = cachedStart;
+        while (pieceStart < to) {
+            Piece piece = pieces.get(index);
+            long begin = piece.start + Math.max(from, pieceStart) - pieceStart;
+            long end = piece.start + Math.min(to, pieceStart + piece.length) - pieceStart;
+            if (piece.isAdded) {
+                added.appendTo(builder, (int) begin, (int) end);
+            }
+            else {
+                char[] chars = new char[(int) (end - begin)];
+                original.getChars(begin, end, chars, 0);
+                builder.append(chars);
+            }
+            pieceStart += piece.length;
+            index += 1;
+        }
+    }
+    public TextSource getOriginal() {
+        return original;
+    }
+    //The pieces, for saving the original text without going through characters
+    public int getPieceCount() {
+        return pieces.size();
+    }
+    public boolean isOriginalPiece(int index) {
+        return !pieces.get(index).isAdded;
+    }
+    //Where a piece starts in the text it comes from
+    public long getPieceStart(int index) {
+        return pieces.get(index).start;
+    }
+    public long getPieceLength(int index) {
+        return pieces.get(index).length;
+    }
+    //Copies the characters in [from, to) into destination, starting at destinationStart
+    public void getChars(long from, long to, char[] destination, int destinationStart) {
+        checkRange(from, to);
+        if (from == to) {
+            return;
+        }
+        int index = findPiece(from);
+        long pieceStart = cachedStart;
+        while (pieceStart < to) {
+            Piece piece = pieces.get(index);
+            long begin = piece.start + Math.max(from, pieceStart) - pieceStart;
+            long end = piece.start + Math.min(to, pieceStart + piece.length) - pieceStart;
+            if (piece.isAdded) {
+                added.getChars((int) begin, (int) end, destination, destinationStart);
+            }
+            else {
+                original.getChars(begin, end, destination, destinationStart);
+            }
+            destinationStart += (int) (end - begin);
+            pieceStart += piece.length;
+            index += 1;
+        }
+    }
+    @Override
+    public String toString() {
+        return getText(0, length);
+    }
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Snapshots can't be edited");
+        }
+    }
+    private void checkRange(long from, long to) {
+        if ((from < 0) || (to > length) || (from > to)) {
+            throw new IndexOutOfBoundsException("Range " + from + "-" + to + " out of range 0-" + length);
+        }
+    }
+    /*Returns the index of the piece containing offset, leaving its start in
+     *cachedStart. An offset equal to the length returns pieces.size().*/
+    private int findPiece(long offset) {
+        if (cachedIndex > pieces.size()) {
+            cachedIndex = 0;
+            cachedStart = 0;
+        }
+        int index = cachedIndex;
+        long pieceStart = cachedStart;
+        while ((index > 0) && (offset < pieceStart)) {
+            index -= 1;
+            pieceStart -= pieces.get(index).length;
+        }
+        while ((index < pieces.size()) && (offset >= pieceStart + pieces.get(index).length)) {
+            pieceStart += pieces.get(index).length;
+            index += 1;
+        }
+        cachedIndex = index;
+        cachedStart = pieceStart;
+        return index;
+    }
+}
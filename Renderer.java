@@ -0,0 +1,21 @@
+package editor;
+
+import javafx.scene.paint.Color;
+/* Renderer
+ * Draws the part of a TextList that is on the screen, along with its
+ * selection, cursor, search matches and syntax highlighting. Viewport does
+ * it with Text nodes and CanvasRenderer paints onto a Canvas; Editor picks
+ * one at startup.
+ */
+public interface Renderer {
+    //The colors of the styles a Lexer gives text, in the order of their numbers
+    Color[] STYLECOLORS = {Color.BLACK, Color.DARKBLUE, Color.DARKGREEN, Color.GRAY, Color.DARKMAGENTA};
+    //Draws the lines visible in a window of the given size scrolled to firstLine
+    void render(int firstLine, int windowWidth, int windowHeight);
+    //Shows or hides the cursor, which blinks
+    void setCursorVisible(boolean visible);
+    //Highlights these matches from now on, as they change
+    void setMatches(MatchIndex matches);
+    //Colors the text with the styles the highlighter has found so far
+    void setHighlighter(Highlighter highlighter);
+}
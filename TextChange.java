@@ -0,0 +1,49 @@
+package editor;
+
+/* TextChange
+ * One change to the text of a TextList, as its listeners are told about
+ * it: where it was made, how many characters it removed, what it inserted
+ * and which lines of the file it touched, all as they were when it was
+ * made, so a listener can bring itself up to date from the changes in a
+ * batch one after another without looking at the text.
+ */
+public class TextChange {
+    private long offset;
+    private int removedLength;
+    private String inserted;
+    private int paragraph; //The index of the line of the file the change starts on
+    private int removedNewlines;
+    private int insertedNewlines;
+    public TextChange(long offset, int removedLength, String inserted, int paragraph,
+        int removedNewlines, int insertedNewlines) {
+        this.offset = offset;
+        this.removedLength = removedLength;
+        this.inserted = inserted;
+        this.paragraph = paragraph;
+        this.removedNewlines = removedNewlines;
+        this.insertedNewlines = insertedNewlines;
+    }
+    public long getOffset() {
+        return offset;
+    }
+    public int getRemovedLength() {
+        return removedLength;
+    }
+    public String getInserted() {
+        return inserted;
+    }
+    public int getInsertedLength() {
+        return inserted.length();
+    }
+    public int getParagraph() {
+        return paragraph;
+    }
+    //The lines of the file the change joined onto the one it starts on
+    public int getRemovedNewlines() {
+        return removedNewlines;
+    }
+    //The lines of the file the change split off the one it starts on
+    public int getInsertedNewlines() {
+        return insertedNewlines;
+    }
+}
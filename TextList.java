@@ -1,111 +1,288 @@
 package editor;
 
-import java.util.List;
 import java.util.ArrayList;
-import javafx.scene.text.Font;
-import javafx.scene.text.Text;
-import javafx.scene.Group;
-import javafx.geometry.VPos;
-import java.io.IOException;
-import java.io.FileWriter;
+import java.util.Collections;
+import java.util.List;
 /* TextList
  * Author: Milo Piazza
- * A container class for TextNode that includes a pointer
- * representing a cursor and a list of nodes representing
- * the start of each line.
+ * A container class for the text being edited. The characters live in
+ * a PieceTable, the cursor is an offset into it, and the Layout knows
+ * where each line on the screen starts. Fonts are only known through the
+ * FontMetrics it is given, so none of this needs JavaFX.
+ *
+ * Listeners are told about changes to the text in batches: every change
+ * between beginChanges and endChanges, such as all those one key press
+ * makes, arrives in one call, and changes made outside of a batch arrive
+ * on their own.
  */
 public class TextList {
+    private static final int COUNTCHUNK = 1 << 16; //Characters read at a time to count newlines
     private int margin;
     private int size;
     private String font;
-    private TextNode sof; //Start of File
-    private TextNode eof; //End of file -- the cursor should never reach this node
-    private TextNode cursor;
-    private Group group;
-    private List<TextNode> lineStarts; //The start of each line, whether automatically
-    //from the editor or from an actual newline
-    public TextList(String font, int size, int margin, Group group) {
-        sof = TextNode.makeNewList();
-        eof = sof.getNext();
-        cursor = sof;
-        lineStarts = new ArrayList<TextNode>();
-        lineStarts.add(sof);
+    private PieceTable buffer;
+    private Layout layout;
+    private LinePositions positions; //Where the characters of recently used lines are drawn
+    private long cursor; //The number of characters before the cursor
+    private long anchor = -1; //Where the selection started, the cursor being the other end, or -1
+    private FontMetrics metrics; //Character widths for the current font and size
+    private FontMetrics.Source metricsSource;
+    private UndoHistory history;
+    private List<Listener> listeners;
+    private List<TextChange> changes; //Made since the current batch began
+    private int batchDepth; //How many beginChanges have not been ended yet
+    //Told about every change to the text after it is made, including undos and redos
+    public interface Listener {
+        void changed(List<TextChange> changes);
+    }
+    public TextList(String font, int size, int margin, FontMetrics.Source metricsSource) {
+        buffer = new PieceTable();
+        layout = new Layout(buffer, margin);
+        positions = new LinePositions(layout, margin);
+        history = new UndoHistory(UndoHistory.DEFAULTLIMIT);
+        listeners = new ArrayList<Listener>();
+        changes = new ArrayList<TextChange>();
+        cursor = 0;
         this.margin = margin;
         this.font = font; //default Verdana
         this.size = size; //default 12?
-        this.group = group;
+        this.metricsSource = metricsSource;
+    }
+    //Replaces the text with the contents of a file, which are laid out as they are drawn
+    public void load(CharSequence text) {
+        load(new TextSource.Chars(text));
+    }
+    public void load(TextSource text) {
+        buffer = new PieceTable(text);
+        layout = new Layout(buffer, margin);
+        positions = new LinePositions(layout, margin);
+        history.clear();
+        cursor = 0;
+        anchor = -1;
+    }
+    /*Takes in the characters a file still being counted has gained, after
+     *whatever is at the end of the text. This isn't an edit, so it can't be
+     *undone and listeners aren't told. Returns whether there were any.*/
+    public boolean grow() {
+        if (buffer.grow() == 0) {
+            return false;
+        }
+        layout.grow();
+        positions.clear();
+        return true;
+    }
+    //Whether the file is still being counted, or has characters grow hasn't taken in yet
+    public boolean isLoading() {
+        return !buffer.isComplete();
+    }
+    //Waits for the whole file to be counted and takes it in, for anything that needs all of it
+    public void finishLoading() {
+        buffer.getOriginal().awaitComplete();
+        grow();
+    }
+    //Runs listener on another thread whenever the file gains characters for grow
+    public void setGrowthListener(Runnable listener) {
+        buffer.getOriginal().setListener(listener);
     }
     public void moveCursorLeft() {
-        if (cursor != sof) {
-            cursor = cursor.getPrev();
+        if (cursor > 0) {
+            cursor -= 1;
         }
     }
     public void moveCursorRight() {
-        if (cursor.getNext() != eof) {
-            cursor = cursor.getNext();
+        if (cursor < buffer.length()) {
+            cursor += 1;
         }
     }
     public void moveCursor(int x, int y) {
-        int lineToMoveTo = y / getTextHeight();
+        int lineToMoveTo = Math.floorDiv(y, getTextHeight());
         if (lineToMoveTo < 0) {
-            cursor = sof;
+            cursor = 0;
         }
-        else if (lineToMoveTo > lineStarts.size() - 1) {
-            cursor = eof.getPrev();
+        else if (lineToMoveTo > layout.getLineCount() - 1) {
+            cursor = buffer.length();
         }
         else {
-            TextNode ptr = lineStarts.get(lineToMoveTo);
-            while ((ptr.getNext() != eof)
-               && ((ptr.getNext().getValue().getX() < x) 
-               && (!(ptr.getNext().isEndOfLine())))) {
-                ptr = ptr.getNext();
-            }
-            if (ptr.getNext() == eof) {
-                cursor = ptr;
-            }
-            else {
-                int distanceFromLeft;
-                int distanceFromRight;
-                if (ptr == sof) {
-                    distanceFromLeft = margin;
-                }
-                else {distanceFromLeft = Math.abs((int) (Math.round(ptr.getValue().getX())) - x);}
-                distanceFromRight = Math.abs((int) (Math.round(ptr.getNext().getValue().getX())) - x);
-                if (distanceFromLeft <= distanceFromRight) {
-                    cursor = ptr.getPrev();
-                }
-                else {
-                    cursor = ptr;
-                }
-            }
+            long start = layout.getLineStart(lineToMoveTo);
+            long end = layout.getLineEnd(lineToMoveTo);
+            cursor = positions.offsetAt(start, getLineLimit(lineToMoveTo), end, x);
         }
     }
+    /*Moves the cursor to the start of a line of the file, counting from 0, or
+     *to the start of the last line if there are fewer.*/
+    public void moveCursorToLine(int line) {
+        long start = layout.getFileLineStart(Math.max(0, line));
+        //Finding out there are fewer lines counted all of them
+        cursor = (start >= 0) ? start : layout.getFileLineStart(layout.getFileLineCount() - 1);
+    }
     public void moveCursorUp() {
         moveCursor(getCursorX(), getCursorY() - getTextHeight());
     }
     public void moveCursorDown() {
         moveCursor(getCursorX(), getCursorY() + getTextHeight());
     }
+    //Deletes the selection, or the character before the cursor if nothing is selected
     public void backspace() {
-        if (cursor != sof) {
-            TextNode temp = cursor;
+        if (hasSelection()) {
+            deleteSelection();
+        }
+        else if (cursor > 0) {
+            replace(cursor - 1, cursor, "");
             moveCursorLeft();
-            group.getChildren().remove(temp.getValue());
-            temp.remove();
+            anchor = -1;
         }
     }
+    //Types text at the cursor, replacing the selection if there is one
     public void type(String character) {
-        TextNode newNode = new TextNode(character);
-        newNode.getValue().setTextOrigin(VPos.TOP);
-        group.getChildren().add(newNode.getValue());
-        cursor.insert(newNode);
-        moveCursorRight();
+        String text = normalize(character);
+        if (hasSelection()) {
+            long from = getSelectionStart();
+            history.breakMerge();
+            if (!replace(from, getSelectionEnd(), text)) {
+                return;
+            }
+            history.breakMerge();
+            cursor = from;
+            anchor = -1;
+        }
+        else {
+            replace(cursor, cursor, text);
+            anchor = -1;
+        }
+        cursor += text.length();
+    }
+    /*Inserts text at offset as a single edit, which is undone on its own. The
+     *cursor and selection stay with the characters around them.*/
+    public void insert(long offset, CharSequence text) {
+        String normalized = normalize(text);
+        history.breakMerge();
+        replace(offset, offset, normalized);
+        history.breakMerge();
+        cursor = shift(cursor, offset, 0, normalized.length());
+        anchor = (anchor < 0) ? -1 : shift(anchor, offset, 0, normalized.length());
+    }
+    /*Pastes text over the selection, or at the cursor, as a single edit that
+     *is undone on its own, and puts the cursor after it.*/
+    public void paste(CharSequence text) {
+        String normalized = normalize(text);
+        long from = getSelectionStart();
+        history.breakMerge();
+        if (!replace(from, getSelectionEnd(), normalized)) {
+            return;
+        }
+        history.breakMerge();
+        cursor = from + normalized.length();
+        anchor = -1;
+    }
+    //Deletes the characters in [from, to) as a single edit, returning false if there are too many
+    public boolean delete(long from, long to) {
+        history.breakMerge();
+        if (!replace(from, to, "")) {
+            return false;
+        }
+        history.breakMerge();
+        cursor = shift(cursor, from, (int) (to - from), 0);
+        anchor = (anchor < 0) ? -1 : shift(anchor, from, (int) (to - from), 0);
+        return true;
+    }
+    //Starts selecting from the cursor, unless a selection has already been started
+    public void startSelection() {
+        if ((anchor < 0) || (anchor == cursor)) {
+            anchor = cursor;
+        }
+    }
+    public void clearSelection() {
+        anchor = -1;
+    }
+    //Selects the characters in [from, to), leaving the cursor at to
+    public void select(long from, long to) {
+        anchor = from;
+        cursor = to;
+    }
+    public void selectAll() {
+        anchor = 0;
+        cursor = buffer.length();
+    }
+    public boolean hasSelection() {
+        return (anchor >= 0) && (anchor != cursor);
+    }
+    public long getSelectionStart() {
+        return (anchor < 0) ? cursor : Math.min(anchor, cursor);
+    }
+    public long getSelectionEnd() {
+        return (anchor < 0) ? cursor : Math.max(anchor, cursor);
+    }
+    //Returns the selected text with '\n' for newlines, ready for the clipboard, or null if a String can't hold it
+    public String getSelectedText() {
+        if (getSelectionEnd() - getSelectionStart() > Integer.MAX_VALUE) {
+            System.out.println("Error while copying! " + (getSelectionEnd() - getSelectionStart())
+                + " characters are too many to copy at once");
+            return null;
+        }
+        return buffer.getText(getSelectionStart(), getSelectionEnd()).replace('\r', '\n');
+    }
+    public void deleteSelection() {
+        if (hasSelection()) {
+            long from = getSelectionStart();
+            if (!delete(from, getSelectionEnd())) {
+                return;
+            }
+            cursor = from;
+        }
+        anchor = -1;
+    }
+    //Reverts the last edit, or run of typing, and puts the cursor where it was made
+    public void undo() {
+        UndoHistory.Edit edit = history.undo();
+        if (edit != null) {
+            String inserted = edit.getInserted();
+            String removed = edit.getRemoved();
+            apply(edit.getOffset(), inserted.length(), countNewlines(inserted), removed);
+            cursor = edit.getOffset() + removed.length();
+            anchor = -1;
+        }
+    }
+    public void redo() {
+        UndoHistory.Edit edit = history.redo();
+        if (edit != null) {
+            String inserted = edit.getInserted();
+            String removed = edit.getRemoved();
+            apply(edit.getOffset(), removed.length(), countNewlines(removed), inserted);
+            cursor = edit.getOffset() + inserted.length();
+            anchor = -1;
+        }
+    }
+    /*Makes an edit read back from a journal, without remembering it for undoing
+     *or telling the listeners, and puts the cursor after it.*/
+    public void replay(long offset, int removedLength, String inserted) {
+        change(offset, removedLength, inserted);
+        cursor = offset + inserted.length();
+        anchor = -1;
+    }
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    //Holds changes back from the listeners until the matching endChanges, batches can nest
+    public void beginChanges() {
+        batchDepth += 1;
+    }
+    public void endChanges() {
+        batchDepth -= 1;
+        if (batchDepth == 0) {
+            tellListeners();
+        }
+    }
+    //Sets roughly how many bytes of edits are remembered for undoing
+    public void setUndoLimit(long bytes) {
+        history.setLimit(bytes);
     }
     public void setFont(String newFont) {
         font = newFont;
+        metrics = null;
     }
     public void setSize(int newSize) {
         size = newSize;
+        metrics = null;
     }
     public String getFont() {
         return font;
@@ -114,102 +291,206 @@ public class TextList {
         return size;
     }
     public int getCursorX() {
-        if ((cursor == sof) || (cursor.isEndOfLine())) {
-            return margin;
-        }
-        return (int) (cursor.getValue().getX() + cursor.getValue().getLayoutBounds().getWidth());
+        return getX(layout.lineOf(cursor), cursor);
+    }
+    //Returns how far along a line the given offset is drawn, counting up to the end of the line
+    public int getX(int line, long offset) {
+        return (int) positions.getX(layout.getLineStart(line), getLineLimit(line), offset);
     }
     public int getCursorY() {
-        if (cursor == sof) {
-            return 0;
-        }
-        else if (cursor.isEndOfLine()) {
-            return (int) cursor.getValue().getY() + getTextHeight();
-        }
-        return (int) cursor.getValue().getY();
+        return layout.lineOf(cursor) * getTextHeight();
     }
     public int getTextHeight() {
-        Text testText = new Text("a");
-        testText.setFont(Font.font(this.font, size));
-        return (int) Math.round(testText.getLayoutBounds().getHeight());
+        return getMetrics().getLineHeight();
+    }
+    public long getLength() {
+        return buffer.length();
+    }
+    //Paragraphs are the lines of the file, which may be wrapped onto several lines on the screen
+    public int getParagraphCount() {
+        return layout.getParagraphCount();
+    }
+    public int getParagraphOf(long offset) {
+        return layout.getParagraphOf(offset);
+    }
+    public long getParagraphStart(int index) {
+        return layout.getParagraphStart(index);
+    }
+    //Returns the offset a line of the file starts at, counting from 0, or -1 if there are fewer lines
+    public long getFileLineStart(int line) {
+        return layout.getFileLineStart(line);
+    }
+    public Paragraph getParagraph(int index) {
+        return layout.getParagraph(index);
+    }
+    //Whether the file was too large to split into paragraphs up front
+    public boolean isSparse() {
+        return layout.isSparse();
     }
     public int getLineCount() {
-        return lineStarts.size();
+        return layout.getLineCount();
     }
+    /*Sets the width to wrap lines to. Paragraphs that changed since the last
+     *update are rewrapped when they are next looked at.*/
     public void updateList(int windowWidth) {
-        int currentX = margin;
-        int currentY = 0;
-        TextNode lastSpace = sof; //this should never actually set the pointer to sof.
-        boolean currentLineHasSpace = false;
-        lineStarts.clear();
-        lineStarts.add(sof);
-        TextNode ptr = sof.getNext();
-        Text currentNode;
-        while (ptr != eof) {
-            currentNode = ptr.getValue();
-            currentNode.setFont(Font.font(font, size));
-            currentNode.setX(currentX);
-            currentNode.setY(currentY);
-            if (currentX + Math.round(currentNode.getLayoutBounds().getWidth()) > windowWidth) {
-                if (currentNode.getText().equals(" ")) {
-                    ptr = ptr.getNext();
-                    continue;
-                }
-                else if (currentLineHasSpace) {
-                    ptr = lastSpace;
-                    ptr.changeEndOfLine(true);
-                    ptr = ptr.getNext();
-                }
-                else {
-                    ptr.changeEndOfLine(true);
+        layout.reflow(windowWidth, getMetrics());
+        positions.clear();
+    }
+    /*Wraps paragraphs nobody has looked at yet, for up to the given number of
+     *nanoseconds. Returns whether the whole file is laid out.*/
+    public boolean layoutPending(long nanos) {
+        return layout.wrapPending(nanos);
+    }
+    //Paragraphs waiting to be wrapped, for wrapping on other threads (see ParallelLayout)
+    public List<Layout.Batch> getPendingBatches(int firstLine, int batchSize) {
+        return layout.getPendingBatches(firstLine, batchSize);
+    }
+    public void applyBatch(Layout.Batch batch) {
+        layout.apply(batch);
+    }
+    //Whether the layout at another font size and width is still kept, so that switching to it is quick
+    public boolean hasLayoutFor(int newSize, int windowWidth) {
+        return layout.hasSaved(windowWidth, metricsSource.get(font, newSize));
+    }
+    //Every paragraph, for wrapping at another font size on other threads while this one is shown
+    public List<Layout.Batch> getBatchesFor(int newSize, int windowWidth, int batchSize) {
+        return layout.getBatchesFor(windowWidth, metricsSource.get(font, newSize), batchSize);
+    }
+    //Switches to another font size, taking the line breaks from Batches wrapped for it
+    public void applyLayout(int newSize, int windowWidth, List<Layout.Batch> batches) {
+        setSize(newSize);
+        layout.reflow(windowWidth, getMetrics());
+        layout.applyAll(batches);
+        positions.clear();
+    }
+    //Returns the text displayed on a line, without its newline
+    public String getLineText(int line) {
+        long start = layout.getLineStart(line);
+        long end = getLineLimit(line);
+        if ((end > start) && (buffer.charAt(end - 1) == '\r')) {
+            end -= 1;
+        }
+        return buffer.getText(start, end);
+    }
+    public String getText(long from, long to) {
+        return buffer.getText(from, to);
+    }
+    public char charAt(long offset) {
+        return buffer.charAt(offset);
+    }
+    //Returns a copy of the text that can be saved on another thread while editing goes on
+    public PieceTable snapshot() {
+        return buffer.snapshot();
+    }
+    public long getLineStart(int line) {
+        return layout.getLineStart(line);
+    }
+    //Returns where the next line starts, or the end of the text after the last line
+    public long getLineLimit(int line) {
+        return (line + 1 < layout.getLineCount()) ? layout.getLineStart(line + 1) : buffer.length();
+    }
+    private static String normalize(CharSequence text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            if (character == '\n') {
+                if ((i == 0) || (text.charAt(i - 1) != '\r')) {
+                    builder.append('\r');
                 }
-                lineStarts.add(ptr);
-                currentX = margin;
-                currentY += getTextHeight();
-                currentLineHasSpace = false;
-                continue;
-            }
-            else if (currentNode.getText().equals("\r")) {
-                lineStarts.add(ptr);
-                currentX = margin;
-                currentY += getTextHeight();
-            }
-            else if ((currentNode.getText().equals(" ")) && (currentX == margin)) {
-                ptr = ptr.getNext();
-                continue;
             }
             else {
-                currentX += (int) Math.round(currentNode.getLayoutBounds().getWidth());
-                ptr.changeEndOfLine(false);
+                builder.append(character);
             }
-            if (currentNode.getText().equals(" ")) {
-                lastSpace = ptr;
-                currentLineHasSpace = true;
+        }
+        return builder.toString();
+    }
+    //Where an offset ends up after removedLength characters at from became insertedLength others
+    private static long shift(long offset, long from, int removedLength, int insertedLength) {
+        if (offset <= from) {
+            return offset;
+        }
+        if (offset >= from + removedLength) {
+            return offset - removedLength + insertedLength;
+        }
+        return from;
+    }
+    /*Every edit goes through here so that it can be undone. Returns false,
+     *saying why, if it removes more characters than one edit can hold.*/
+    private boolean replace(long from, long to, String inserted) {
+        if ((from < 0) || (to > buffer.length()) || (from > to)) {
+            throw new IndexOutOfBoundsException("Range " + from + "-" + to + " out of range 0-" + buffer.length());
+        }
+        if (to - from > Integer.MAX_VALUE) {
+            System.out.println("Error while editing! " + (to - from) + " characters are too many to remove at once");
+            return false;
+        }
+        if (!history.canRemember(to - from, inserted.length())) {
+            //An edit too large to undo doesn't need a copy of what it removes
+            apply(from, (int) (to - from), countNewlines(from, to), inserted);
+            history.clear();
+            return true;
+        }
+        String removed = buffer.getText(from, to);
+        apply(from, removed.length(), countNewlines(removed), inserted);
+        history.record(from, removed, inserted);
+        return true;
+    }
+    private void apply(long offset, int removedLength, int removedNewlines, String inserted) {
+        int paragraph = layout.getParagraphOf(offset);
+        change(offset, removedLength, inserted);
+        changes.add(new TextChange(offset, removedLength, inserted, paragraph,
+            removedNewlines, countNewlines(inserted)));
+        if (batchDepth == 0) {
+            tellListeners();
+        }
+    }
+    private void tellListeners() {
+        if (changes.isEmpty()) {
+            return;
+        }
+        List<TextChange> batch = Collections.unmodifiableList(changes);
+        changes = new ArrayList<TextChange>();
+        for (Listener listener : listeners) {
+            listener.changed(batch);
+        }
+    }
+    private static int countNewlines(String text) {
+        int newlines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\r') {
+                newlines += 1;
             }
-            ptr = ptr.getNext();
-        }
-    }
-    public void write(String filename) {
-        try {
-            FileWriter writer = new FileWriter(filename);
-            char charToWrite;
-            TextNode ptr = sof;
-            while (ptr.getNext() != eof) {
-                ptr = ptr.getNext();
-                charToWrite = ptr.getValue().getText().charAt(0);
-                if (charToWrite == '\r') {
-                    writer.write('\n');
-                }
-                else {
-                    writer.write(charToWrite);
+        }
+        return newlines;
+    }
+    private int countNewlines(long from, long to) {
+        char[] chunk = new char[(int) Math.min(COUNTCHUNK, to - from)];
+        int newlines = 0;
+        for (long start = from; start < to; start += chunk.length) {
+            int length = (int) Math.min(chunk.length, to - start);
+            buffer.getChars(start, start + length, chunk, 0);
+            for (int i = 0; i < length; i++) {
+                if (chunk[i] == '\r') {
+                    newlines += 1;
                 }
             }
-            writer.close();
-            System.out.println("The exception-free terminal window fills you with determination.");
-            System.out.println("Saved to " + filename);
-        } catch (IOException ioe) {
-            System.out.println("Error while writing! Exception was: " + ioe);
         }
+        return newlines;
+    }
+    private void change(long offset, int removedLength, String inserted) {
+        if (removedLength > 0) {
+            buffer.delete(offset, removedLength);
+        }
+        if (inserted.length() > 0) {
+            buffer.insert(offset, inserted);
+        }
+        layout.edit(offset, removedLength, inserted);
+        positions.clear();
+    }
+    private FontMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = metricsSource.get(font, size);
+        }
+        return metrics;
     }
 }
-    
\ No newline at end of file
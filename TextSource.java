@@ -0,0 +1,61 @@
+package editor;
+
+/* TextSource
+ * Read-only text that a PieceTable is made over: a whole file read into
+ * memory, or a MappedText for a file too large for that. Offsets are
+ * longs, since the text of a mapped file can be longer than an array or a
+ * String could hold.
+ *
+ * A mapped file is counted in the background, so its length grows from
+ * the front of the file to the end as pages are counted. Text held in
+ * memory is complete from the start.
+ */
+public interface TextSource {
+    long length();
+    char charAt(long index);
+    //Copies the characters in [from, to) into destination, starting at destinationStart
+    void getChars(long from, long to, char[] destination, int destinationStart);
+    //Whether the length is final, which it stays once it is
+    boolean isComplete();
+    //Waits until the length is final
+    void awaitComplete();
+    /*Runs listener, on whichever thread counted them, each time more characters
+     *can be read, and once when it is set in case some were counted before.
+     *Text that is complete from the start never runs it.*/
+    void setListener(Runnable listener);
+    //Text held in memory
+    class Chars implements TextSource {
+        private CharSequence text;
+        public Chars(CharSequence text) {
+            this.text = text;
+        }
+        @Override
+        public long length() {
+            return text.length();
+        }
+        @Override
+        public char charAt(long index) {
+            return text.charAt((int) index);
+        }
+        @Override
+        public void getChars(long from, long to, char[] destination, int destinationStart) {
+            if (text instanceof String) {
+                ((String) text).getChars((int) from, (int) to, destination, destinationStart);
+                return;
+            }
+            for (int i = (int) from; i < to; i++) {
+                destination[destinationStart + i - (int) from] = text.charAt(i);
+            }
+        }
+        @Override
+        public boolean isComplete() {
+            return true;
+        }
+        @Override
+        public void awaitComplete() {
+        }
+        @Override
+        public void setListener(Runnable listener) {
+        }
+    }
+}
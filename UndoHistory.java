@@ -0,0 +1,136 @@
+package editor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+/* UndoHistory
+ * Remembers edits as the text removed and inserted at an offset rather
+ * than copies of the document. Characters typed one after another are
+ * merged into a single edit, as are runs of backspaces, and the oldest
+ * edits are forgotten once the history uses more than its memory limit.
+ */
+public class UndoHistory {
+    public static final long DEFAULTLIMIT = 32L << 20;
+    private static final long EDITOVERHEAD = 64; //Rough size of an Edit and its Strings, in bytes
+    private Deque<Edit> undos;
+    private Deque<Edit> redos;
+    private long limit; //In bytes
+    private long used;
+    private boolean merging; //Whether the next typed character may join the last edit
+    public static class Edit {
+        private long offset;
+        private StringBuilder removed;
+        private StringBuilder inserted;
+        private Edit(long offset, CharSequence removed, CharSequence inserted) {
+            this.offset = offset;
+            this.removed = new StringBuilder(removed);
+            this.inserted = new StringBuilder(inserted);
+        }
+        public long getOffset() {
+            return offset;
+        }
+        public String getRemoved() {
+            return removed.toString();
+        }
+        public String getInserted() {
+            return inserted.toString();
+        }
+        private long size() {
+            return EDITOVERHEAD + 2L * (removed.length() + inserted.length());
+        }
+    }
+    public UndoHistory(long limit) {
+        undos = new ArrayDeque<Edit>();
+        redos = new ArrayDeque<Edit>();
+        this.limit = limit;
+    }
+    public void setLimit(long newLimit) {
+        limit = newLimit;
+        trim();
+    }
+    //Whether an edit removing and inserting this many characters fits in the limit at all
+    public boolean canRemember(long removedLength, long insertedLength) {
+        return EDITOVERHEAD + 2 * (removedLength + insertedLength) <= limit;
+    }
+    //Records that removed was replaced by inserted at offset
+    public void record(long offset, CharSequence removed, CharSequence inserted) {
+        for (Edit redo : redos) {
+            used -= redo.size();
+        }
+        redos.clear();
+        Edit last = undos.peekLast();
+        if (merging && (last != null) && canMerge(last, offset, removed, inserted)) {
+            used -= last.size();
+            if (inserted.length() > 0) {
+                last.inserted.append(inserted);
+            }
+            else {
+                last.removed.insert(0, removed);
+                last.offset = offset;
+            }
+            used += last.size();
+        }
+        else {
+            Edit edit = new Edit(offset, removed, inserted);
+            undos.addLast(edit);
+            used += edit.size();
+        }
+        //A newline ends the run being merged, so it is undone separately from the next line
+        merging = (indexOf(inserted, '\r') < 0) && (indexOf(removed, '\r') < 0);
+        trim();
+    }
+    //Stops the next edit from being merged into the last one
+    public void breakMerge() {
+        merging = false;
+    }
+    //Returns the edit to undo and moves it to the redo list, or null if there is none
+    public Edit undo() {
+        Edit edit = undos.pollLast();
+        if (edit != null) {
+            redos.addLast(edit);
+        }
+        merging = false;
+        return edit;
+    }
+    public Edit redo() {
+        Edit edit = redos.pollLast();
+        if (edit != null) {
+            undos.addLast(edit);
+        }
+        merging = false;
+        return edit;
+    }
+    public void clear() {
+        undos.clear();
+        redos.clear();
+        used = 0;
+        merging = false;
+    }
+    /*Typing right after the last insertion joins it, and deleting right before
+     *the last deletion joins that.*/
+    private static boolean canMerge(Edit last, long offset, CharSequence removed, CharSequence inserted) {
+        if ((removed.length() == 0) && (last.removed.length() == 0)) {
+            return offset == last.offset + last.inserted.length();
+        }
+        if ((inserted.length() == 0) && (last.inserted.length() == 0)) {
+            return offset + removed.length() == last.offset;
+        }
+        return false;
+    }
+    //Forgets the oldest edits, then any redos, until the history fits in its limit
+    private void trim() {
+        while ((used > limit) && !undos.isEmpty()) {
+            used -= undos.pollFirst().size();
+        }
+        while ((used > limit) && !redos.isEmpty()) {
+            used -= redos.pollFirst().size();
+        }
+    }
+    private static int indexOf(CharSequence text, char character) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == character) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,188 @@
+package editor;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+/* Viewport
+ * Draws the lines of a TextList that are on the screen. It keeps a pool of
+ * Text objects, one for each visible line plus a few above and below, or
+ * one for each run of a style when the text is highlighted, and points them
+ * at whichever lines are showing as the window scrolls, so the number of
+ * nodes in the scene does not depend on the size of the file.
+ * Selected text and search matches are highlighted by pools of rectangles
+ * in the same way, and the cursor is one more rectangle.
+ */
+public class Viewport implements Renderer {
+    private static final int OVERSCAN = 5;
+    private static final Color SELECTIONCOLOR = Color.LIGHTSKYBLUE;
+    private static final Color MATCHCOLOR = Color.KHAKI;
+    private TextList text;
+    private Group group;
+    private int margin;
+    private List<Text> pool;
+    private List<Rectangle> highlights;
+    private List<Rectangle> matchHighlights;
+    private Group selectionLayer; //Behind the text, with the matches behind the selection
+    private Group matchLayer;
+    private MatchIndex matches;
+    private Highlighter highlighter; //Null when the text is drawn plain
+    private Rectangle cursor;
+    private Font font;
+    private String fontName;
+    private int fontSize;
+    public Viewport(TextList text, Group group, int margin) {
+        this.text = text;
+        this.group = group;
+        this.margin = margin;
+        pool = new ArrayList<Text>();
+        highlights = new ArrayList<Rectangle>();
+        matchHighlights = new ArrayList<Rectangle>();
+        selectionLayer = new Group();
+        matchLayer = new Group();
+        group.getChildren().add(0, selectionLayer);
+        group.getChildren().add(0, matchLayer);
+        cursor = new Rectangle();
+        cursor.setWidth(1);
+        group.getChildren().add(cursor);
+    }
+    @Override
+    public void render(int firstLine, int windowWidth, int windowHeight) {
+        int lineHeight = text.getTextHeight();
+        int from = Math.max(0, firstLine - OVERSCAN);
+        int to = Math.min(text.getLineCount(), firstLine + windowHeight / lineHeight + 1 + OVERSCAN);
+        if ((font == null) || !text.getFont().equals(fontName) || (text.getSize() != fontSize)) {
+            fontName = text.getFont();
+            fontSize = text.getSize();
+            font = Font.font(fontName, fontSize);
+        }
+        int used = 0;
+        for (int line = from; line < to; line++) {
+            String lineText = text.getLineText(line);
+            long lineStart = text.getLineStart(line);
+            int[] styles = (highlighter == null) ? null : highlighter.getStyles(lineStart, lineStart + lineText.length());
+            if (styles == null) {
+                placeText(used, lineText, margin, line * lineHeight, Color.BLACK);
+                used += 1;
+                continue;
+            }
+            //A Text for each run of a style on the line
+            for (int i = 0; i < styles.length; i += 2) {
+                int runStart = styles[i];
+                int runEnd = (i + 2 < styles.length) ? styles[i + 2] : lineText.length();
+                if (runEnd > runStart) {
+                    placeText(used, lineText.substring(runStart, runEnd), text.getX(line, lineStart + runStart),
+                        line * lineHeight, STYLECOLORS[styles[i + 1]]);
+                    used += 1;
+                }
+            }
+        }
+        for (int i = used; i < pool.size(); i++) {
+            pool.get(i).setVisible(false);
+        }
+        renderMatches(from, to, lineHeight);
+        renderSelection(from, to, lineHeight);
+        cursor.setX(text.getCursorX());
+        cursor.setY(text.getCursorY());
+        cursor.setHeight(lineHeight);
+    }
+    @Override
+    public void setCursorVisible(boolean visible) {
+        cursor.setFill(visible ? Color.BLACK : Color.WHITE);
+    }
+    @Override
+    public void setMatches(MatchIndex newMatches) {
+        matches = newMatches;
+    }
+    @Override
+    public void setHighlighter(Highlighter newHighlighter) {
+        highlighter = newHighlighter;
+    }
+    //Shows the given Text of the pool, adding one if the pool runs out
+    private void placeText(int index, String runText, int x, int y, Color color) {
+        if (index == pool.size()) {
+            Text line = new Text();
+            line.setTextOrigin(VPos.TOP);
+            group.getChildren().add(line);
+            pool.add(line);
+        }
+        Text line = pool.get(index);
+        if (!runText.equals(line.getText())) {
+            line.setText(runText);
+        }
+        if (line.getFont() != font) {
+            line.setFont(font);
+        }
+        if (line.getFill() != color) {
+            line.setFill(color);
+        }
+        line.setX(x);
+        line.setY(y);
+        line.setVisible(true);
+    }
+    //Puts a rectangle behind each match on the lines from from up to to
+    private void renderMatches(int from, int to, int lineHeight) {
+        int used = 0;
+        if ((matches != null) && (matches.size() > 0)) {
+            for (int line = from; line < to; line++) {
+                long lineStart = text.getLineStart(line);
+                long lineLimit = text.getLineLimit(line);
+                for (int i = matches.indexAround(lineStart); (i < matches.size()) && (matches.getStart(i) < lineLimit); i++) {
+                    if (matches.getEnd(i) <= lineStart) {
+                        continue;
+                    }
+                    int left = text.getX(line, Math.max(matches.getStart(i), lineStart));
+                    int right = text.getX(line, Math.min(matches.getEnd(i), lineLimit));
+                    place(matchLayer, matchHighlights, used, MATCHCOLOR, left, right, line * lineHeight, lineHeight);
+                    used += 1;
+                }
+            }
+        }
+        for (int i = used; i < matchHighlights.size(); i++) {
+            matchHighlights.get(i).setVisible(false);
+        }
+    }
+    //Puts a rectangle behind the selected part of each line from from up to to
+    private void renderSelection(int from, int to, int lineHeight) {
+        int used = 0;
+        if (text.hasSelection()) {
+            long selectionStart = text.getSelectionStart();
+            long selectionEnd = text.getSelectionEnd();
+            for (int line = from; line < to; line++) {
+                long lineStart = text.getLineStart(line);
+                long lineLimit = text.getLineLimit(line);
+                if ((selectionEnd <= lineStart) || (selectionStart >= lineLimit)) {
+                    continue;
+                }
+                int left = text.getX(line, Math.max(selectionStart, lineStart));
+                int right = text.getX(line, Math.min(selectionEnd, lineLimit));
+                place(selectionLayer, highlights, used, SELECTIONCOLOR, left, right, line * lineHeight, lineHeight);
+                used += 1;
+            }
+        }
+        for (int i = used; i < highlights.size(); i++) {
+            highlights.get(i).setVisible(false);
+        }
+    }
+    //Shows the given rectangle of a pool, adding one to the layer if the pool runs out
+    private static void place(Group layer, List<Rectangle> pool, int index, Color color,
+        int left, int right, int y, int height) {
+        if (index == pool.size()) {
+            Rectangle highlight = new Rectangle();
+            highlight.setFill(color);
+            highlight.setMouseTransparent(true);
+            layer.getChildren().add(highlight);
+            pool.add(highlight);
+        }
+        Rectangle highlight = pool.get(index);
+        highlight.setX(left);
+        highlight.setY(y);
+        highlight.setWidth(Math.max(1, right - left));
+        highlight.setHeight(height);
+        highlight.setVisible(true);
+    }
+}
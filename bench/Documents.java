@@ -0,0 +1,30 @@
+package editor.bench;
+
+import java.util.Random;
+/* Documents
+ * Makes up text for the benchmarks: words of a few letters separated by
+ * spaces, with a newline every few dozen words, always the same for the
+ * same size so that runs can be compared. To run the benchmarks, compile
+ * this directory against the editor classes with jmh-core and
+ * jmh-generator-annprocess on the classpath, then run org.openjdk.jmh.Main.
+ */
+public class Documents {
+    public static final int WIDTH = 800;
+    public static final int MARGIN = 5;
+    public static final String FONT = "Fixed";
+    public static final int FONTSIZE = 12;
+    //Returns size characters of text, with '\r' for newlines as TextList expects
+    public static String make(int size) {
+        Random random = new Random(size);
+        StringBuilder text = new StringBuilder(size);
+        while (text.length() < size) {
+            int wordLength = 1 + random.nextInt(10);
+            for (int i = 0; i < wordLength; i++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            text.append((random.nextInt(40) == 0) ? '\r' : ' ');
+        }
+        text.setLength(size);
+        return text.toString();
+    }
+}
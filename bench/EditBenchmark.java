@@ -0,0 +1,66 @@
+package editor.bench;
+
+import editor.FixedMetrics;
+import editor.TextList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+/* EditBenchmark
+ * Times typing and backspacing in the middle of a document, including
+ * rewrapping the edited paragraph. Each measurement is a batch of
+ * keystrokes on a freshly loaded document, since every keystroke
+ * changes the text the next one works on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, batchSize = EditBenchmark.KEYSTROKES)
+@Measurement(iterations = 20, batchSize = EditBenchmark.KEYSTROKES)
+@Fork(1)
+public class EditBenchmark {
+    static final int KEYSTROKES = 500;
+    @Param({"1024", "1048576", "52428800"})
+    public int size;
+    private String document;
+    private int lines;
+    private TextList text;
+    @Setup(Level.Trial)
+    public void makeDocument() {
+        document = Documents.make(size);
+        lines = 1;
+        for (int i = 0; i < document.length(); i++) {
+            if (document.charAt(i) == '\r') {
+                lines += 1;
+            }
+        }
+    }
+    @Setup(Level.Iteration)
+    public void load() {
+        text = new TextList(Documents.FONT, Documents.FONTSIZE, Documents.MARGIN, FixedMetrics.SOURCE);
+        text.load(document);
+        text.updateList(Documents.WIDTH);
+        //Lines of the file, since lines on the screen aren't all counted yet in a large document
+        text.moveCursorToLine(lines / 2);
+        text.getCursorY();
+    }
+    @Benchmark
+    public void type() {
+        text.type("a");
+        text.getCursorY();
+    }
+    @Benchmark
+    public void backspace() {
+        text.backspace();
+        text.getCursorY();
+    }
+}
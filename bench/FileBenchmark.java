@@ -0,0 +1,67 @@
+package editor.bench;
+
+import editor.FileLoader;
+import editor.FileSaver;
+import editor.FixedMetrics;
+import editor.PieceTable;
+import editor.TextList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+/* FileBenchmark
+ * Times opening a file up to the point where the first screen can be
+ * drawn, and saving a snapshot of the text the way Ctrl+S does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileBenchmark {
+    @Param({"1024", "1048576", "52428800"})
+    public int size;
+    private Path input;
+    private Path output;
+    private TextList text;
+    @Setup(Level.Trial)
+    public void writeFile() throws IOException {
+        String document = Documents.make(size);
+        input = Files.createTempFile("editor-bench", ".txt");
+        output = Files.createTempFile("editor-bench", ".out");
+        Files.write(input, document.replace('\r', '\n').getBytes(FileLoader.CHARSET));
+        text = new TextList(Documents.FONT, Documents.FONTSIZE, Documents.MARGIN, FixedMetrics.SOURCE);
+        text.load(document);
+    }
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(output);
+    }
+    @Benchmark
+    public int load() throws IOException {
+        TextList loaded = new TextList(Documents.FONT, Documents.FONTSIZE, Documents.MARGIN, FixedMetrics.SOURCE);
+        loaded.load(new FileLoader().readAll(input));
+        loaded.updateList(Documents.WIDTH);
+        return loaded.getLineText(0).length();
+    }
+    @Benchmark
+    public void save() throws IOException {
+        PieceTable snapshot = text.snapshot();
+        FileSaver.write(snapshot, output);
+    }
+}
@@ -0,0 +1,65 @@
+package editor.bench;
+
+import editor.FixedMetrics;
+import editor.TextList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+/* LayoutBenchmark
+ * Times clicking to move the cursor in a wrapped document, rewrapping the
+ * whole document when the window changes width, and going back to a width
+ * it was wrapped at before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutBenchmark {
+    @Param({"1024", "1048576", "52428800"})
+    public int size;
+    private TextList text;
+    private int click;
+    private int step;
+    private boolean wide;
+    @Setup(Level.Trial)
+    public void load() {
+        text = new TextList(Documents.FONT, Documents.FONTSIZE, Documents.MARGIN, FixedMetrics.SOURCE);
+        text.load(Documents.make(size));
+        text.updateList(Documents.WIDTH);
+        text.layoutPending(Long.MAX_VALUE);
+    }
+    @Benchmark
+    public int moveCursor() {
+        //Steps through the lines by a prime so that no two clicks in a row are close
+        click = (click + 7919) % text.getLineCount();
+        text.moveCursor(Documents.WIDTH / 2, click * text.getTextHeight());
+        return text.getCursorX();
+    }
+    @Benchmark
+    public boolean updateList() {
+        /*Every width is used only once in a few hundred steps, far more than
+         *Layout keeps the line breaks of, so every step rewraps the text.*/
+        step = (step + 1) % (Documents.WIDTH / 2);
+        text.updateList(Documents.WIDTH / 2 + step);
+        return text.layoutPending(Long.MAX_VALUE);
+    }
+    @Benchmark
+    public boolean restoreList() {
+        //Switches between two widths, so the line breaks kept for the other one are put back
+        wide = !wide;
+        text.updateList(wide ? Documents.WIDTH : Documents.WIDTH / 2);
+        return text.layoutPending(Long.MAX_VALUE);
+    }
+}
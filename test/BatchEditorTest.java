@@ -0,0 +1,58 @@
+package editor.test;
+
+import editor.BatchEditor;
+import editor.FileLoader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+/* BatchEditorTest
+ * Checks that goto in a batch script counts the lines of the file, in a
+ * file of more than 16M characters, which is too large to split into
+ * paragraphs up front, so that its layout starts out as blocks. It needs
+ * nothing but the editor classes and about 40 MB of temporary files, and
+ * is run as
+ *     java editor.test.BatchEditorTest
+ * which exits with an error at the first check that fails.
+ */
+public class BatchEditorTest {
+    private static final int LINES = 1500000;
+    public static void main(String[] args) throws IOException {
+        gotoInSparseFile();
+        System.out.println("BatchEditorTest passed");
+    }
+    //Line n of the file holds n padded to 11 digits, so the file is 18 MB
+    private static void gotoInSparseFile() throws IOException {
+        Path file = Files.createTempFile("BatchEditorTest", ".txt");
+        Path script = Files.createTempFile("BatchEditorTest", ".script");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(file, FileLoader.CHARSET)) {
+                for (int line = 1; line <= LINES; line++) {
+                    out.write(String.format("%011d\n", line));
+                }
+            }
+            Files.write(script, Arrays.asList("goto 1000000 3", "insert XX", "goto 1400000", "insert YY", "save"),
+                FileLoader.CHARSET);
+            if (BatchEditor.run(Arrays.asList(script.toString(), file.toString())) != 0) {
+                throw new AssertionError("The script failed");
+            }
+            String[] lines = FileLoader.read(file.toString()).split("\r", -1);
+            check(lines, 999999, "00XX001000000");
+            check(lines, 1399999, "YY00001400000");
+            check(lines, 999998, "00000999999");
+            if (lines.length != LINES + 1) {
+                throw new AssertionError("Expected " + (LINES + 1) + " lines but there were " + lines.length);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(script);
+        }
+    }
+    private static void check(String[] lines, int index, String expected) {
+        if (!lines[index].equals(expected)) {
+            throw new AssertionError("Expected line " + (index + 1) + " to be \"" + expected
+                + "\" but it was \"" + lines[index] + "\"");
+        }
+    }
+}
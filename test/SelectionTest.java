@@ -0,0 +1,82 @@
+package editor.test;
+
+import editor.FixedMetrics;
+import editor.TextList;
+/* SelectionTest
+ * Checks that editing with nothing selected leaves nothing selected, so
+ * that the keys typed after a selection has been shrunk back to nothing go
+ * in as typed, and that a paste replaces the selection and is undone on
+ * its own rather than with the typing around it. It needs nothing but the
+ * editor classes, and is run as
+ *     java editor.test.SelectionTest
+ * which exits with an error at the first check that fails.
+ */
+public class SelectionTest {
+    public static void main(String[] args) {
+        typingAfterEmptySelection();
+        deletingAfterBackspace();
+        pastingOverSelection();
+        System.out.println("SelectionTest passed");
+    }
+    //Shift+Left then Shift+Right, as the editor handles them, then typing
+    private static void typingAfterEmptySelection() {
+        TextList text = load("hello");
+        text.startSelection();
+        text.moveCursorLeft();
+        text.startSelection();
+        text.moveCursorRight();
+        for (char typed : "abc".toCharArray()) {
+            text.type(String.valueOf(typed));
+        }
+        check(text, "helloabc");
+        if (text.hasSelection()) {
+            throw new AssertionError("Nothing should be selected after typing");
+        }
+    }
+    //A backspace with nothing selected used to leave the anchor past the end of the text
+    private static void deletingAfterBackspace() {
+        TextList text = load("hello");
+        text.startSelection();
+        text.moveCursorLeft();
+        text.moveCursorRight();
+        text.backspace();
+        text.backspace();
+        text.deleteSelection();
+        check(text, "hel");
+    }
+    //Typing, a paste, then more typing, undone a step at a time, then a paste over a selection
+    private static void pastingOverSelection() {
+        TextList text = load("");
+        text.type("a");
+        text.type("b");
+        text.paste("XY");
+        text.type("c");
+        check(text, "abXYc");
+        text.undo();
+        check(text, "abXY");
+        text.undo();
+        check(text, "ab");
+        text.startSelection();
+        text.moveCursorLeft();
+        text.paste("Z");
+        check(text, "aZ");
+        text.undo();
+        check(text, "ab");
+    }
+    private static TextList load(String contents) {
+        TextList text = new TextList("Fixed", 12, 5, FixedMetrics.SOURCE);
+        text.load(contents);
+        text.updateList(800);
+        text.moveCursorToLine(0);
+        for (int i = 0; i < contents.length(); i++) {
+            text.moveCursorRight();
+        }
+        return text;
+    }
+    private static void check(TextList text, String expected) {
+        String actual = text.getText(0, text.getLength());
+        if (!actual.equals(expected)) {
+            throw new AssertionError("Expected \"" + expected + "\" but the text was \"" + actual + "\"");
+        }
+    }
+}